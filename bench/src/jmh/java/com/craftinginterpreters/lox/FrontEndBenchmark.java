@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The stages a script goes through before it runs, each on its own.
+ * Besides runs per second, scan reports tokens per second and parse AST nodes per second, so programs of
+ * different sizes compare.  resolve reports how long resolving a whole program takes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrontEndBenchmark {
+    @Param({"fib", "binary_trees", "method_call", "instantiation", "string_concat", "closures", "loops"})
+    public String program;
+
+    private String source;
+    private int nodes;
+    private Interpreter interpreter;
+    private List<Stmt> statements;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Nodes {
+        public long nodes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            nodes = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        source = Programs.read(program);
+        interpreter = new Interpreter();
+        nodes = Optimizer.size(new Parser(new Scanner(source, interpreter.symbols)).parse());
+        statements = Programs.compile(source, interpreter);
+        Programs.silence();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Programs.restore();
+    }
+
+    @Benchmark
+    public int scan(Tokens counter) {
+        Scanner scanner = new Scanner(source, interpreter.symbols);
+        int count = 0;
+        while (scanner.scan() != TokenType.EOF) count++;
+        counter.tokens += count;
+        return count;
+    }
+
+    @Benchmark
+    public List<Stmt> parse(Nodes counter) {
+        List<Stmt> parsed = new Parser(new Scanner(source, interpreter.symbols)).parse();
+        counter.nodes += nodes;
+        return parsed;
+    }
+
+    // resolving again gives the nodes the slots they already have.
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Resolver resolve() {
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+        return resolver;
+    }
+}
@@ -0,0 +1,61 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Whole Lox programs, from source to the last statement, each time on a fresh interpreter as "jlox script" would.
+ * specialize and jit compare against --no-specialize and --no-jit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgramBenchmark {
+    @Param({"fib", "binary_trees", "method_call", "instantiation", "string_concat", "closures", "loops"})
+    public String program;
+
+    @Param({"true", "false"})
+    public boolean specialize;
+
+    @Param({"true", "false"})
+    public boolean jit;
+
+    private String source;
+
+    @Setup
+    public void setUp() {
+        source = Programs.read(program);
+        // fails the trial on errors while they can still be seen.
+        Programs.compile(source, new Interpreter());
+        Programs.silence();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Programs.restore();
+    }
+
+    @Benchmark
+    public Interpreter run() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.specializeNodes = specialize;
+        if (!jit) interpreter.jitThreshold = -1;
+        Programs.run(source, interpreter);
+        return interpreter;
+    }
+}
@@ -0,0 +1,70 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The Lox programs the benchmarks run, which live in the programs directory of the resources, and what running
+ * them needs around the interpreter.
+ */
+final class Programs {
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+    private static PrintStream out = null;
+    private static PrintStream err = null;
+
+    private Programs() {}
+
+    /** Returns the source of the program called name. */
+    static String read(String name) {
+        try (InputStream in = Programs.class.getResourceAsStream("/programs/" + name + ".lox")) {
+            if (in == null) throw new IllegalArgumentException("No program called '" + name + "'.");
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Parses, optimizes and resolves source the way Lox does for a script. */
+    static List<Stmt> compile(String source, Interpreter interpreter) {
+        List<Stmt> statements = new Parser(new Scanner(source, interpreter.symbols)).parse();
+        if (!Lox.hadError) new Resolver(interpreter).resolve(statements);
+        if (!Lox.hadError) statements = Lox.optimizeResolved(statements, new Resolver(interpreter, false));
+
+        if (Lox.hadError) {
+            Lox.hadError = false;
+            throw new IllegalStateException("The program has errors.");
+        }
+        return statements;
+    }
+
+    /** Runs source from start to finish on interpreter. */
+    static void run(String source, Interpreter interpreter) {
+        interpreter.interpret(compile(source, interpreter));
+        if (Lox.hadRuntimeError) {
+            Lox.hadRuntimeError = false;
+            throw new IllegalStateException("The program failed.");
+        }
+    }
+
+    /** Stops what programs print, and warnings, from reaching the console, which would only measure it. */
+    static void silence() {
+        if (out != null) return;
+        out = System.out;
+        err = System.err;
+        System.setOut(DISCARD);
+        System.setErr(DISCARD);
+    }
+
+    static void restore() {
+        if (out == null) return;
+        System.setOut(out);
+        System.setErr(err);
+        out = null;
+        err = null;
+    }
+}
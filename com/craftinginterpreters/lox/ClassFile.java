@@ -0,0 +1,470 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, covering just the instructions the Jit emits.
+ * Classes are written as version 49 so the verifier infers types itself and no stack map frames are needed.
+ */
+final class ClassFile {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int MAJOR_VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    static final int ACONST_NULL = 1;
+    static final int ICONST_0 = 3;
+    static final int ICONST_1 = 4;
+    static final int DCONST_0 = 14;
+    static final int DCONST_1 = 15;
+    static final int BIPUSH = 16;
+    static final int SIPUSH = 17;
+    static final int LDC_W = 19;
+    static final int LDC2_W = 20;
+    static final int ILOAD = 21;
+    static final int DLOAD = 24;
+    static final int ALOAD = 25;
+    static final int AALOAD = 50;
+    static final int ISTORE = 54;
+    static final int DSTORE = 57;
+    static final int ASTORE = 58;
+    static final int AASTORE = 83;
+    static final int POP = 87;
+    static final int POP2 = 88;
+    static final int DUP = 89;
+    static final int DUP2 = 92;
+    static final int DADD = 99;
+    static final int DSUB = 103;
+    static final int DMUL = 107;
+    static final int DNEG = 119;
+    static final int IXOR = 130;
+    static final int DCMPL = 151;
+    static final int DCMPG = 152;
+    static final int IFEQ = 153;
+    static final int IFNE = 154;
+    static final int IFLT = 155;
+    static final int IFGE = 156;
+    static final int IFGT = 157;
+    static final int IFLE = 158;
+    static final int IF_ICMPEQ = 159;
+    static final int IF_ICMPNE = 160;
+    static final int GOTO = 167;
+    static final int ARETURN = 176;
+    static final int RETURN = 177;
+    static final int GETSTATIC = 178;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESPECIAL = 183;
+    static final int INVOKESTATIC = 184;
+    static final int INVOKEINTERFACE = 185;
+    static final int ANEWARRAY = 189;
+    static final int CHECKCAST = 192;
+    static final int INSTANCEOF = 193;
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<int[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(String name, String superName, String... interfaces) {
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+    }
+
+    String name() {
+        return name;
+    }
+
+    void field(int access, String fieldName, String descriptor) {
+        fields.add(new int[] { access, utf8(fieldName), utf8(descriptor) });
+    }
+
+    /** Starts a new method.  Its code is written through the returned Code. */
+    Code method(int access, String methodName, String descriptor) {
+        Code code = new Code(access, methodName, descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        int thisIndex = classRef(name);
+        int superIndex = classRef(superName);
+        int[] interfaceIndices = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            interfaceIndices[i] = classRef(interfaces[i]);
+        }
+        int codeIndex = utf8("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndices.length);
+            for (int index : interfaceIndices) out.writeShort(index);
+
+            out.writeShort(fields.size());
+            for (int[] field : fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                method.writeTo(out, codeIndex);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // constant pool entries are deduplicated by a key made of their tag and contents.
+
+    private int entry(String key, int slots, PoolWriter writer) {
+        Integer index = poolIndices.get(key);
+        if (index != null) return index;
+
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        index = poolCount;
+        poolCount += slots;
+        poolIndices.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write() throws IOException;
+    }
+
+    int utf8(String value) {
+        return entry("Utf8 " + value, 1, () -> {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return entry("Class " + internalName, 1, () -> {
+            poolOut.writeByte(7);
+            poolOut.writeShort(nameIndex);
+        });
+    }
+
+    int doubleConstant(double value) {
+        return entry("Double " + Double.doubleToRawLongBits(value), 2, () -> {
+            poolOut.writeByte(6);
+            poolOut.writeDouble(value);
+        });
+    }
+
+    int integerConstant(int value) {
+        return entry("Integer " + value, 1, () -> {
+            poolOut.writeByte(3);
+            poolOut.writeInt(value);
+        });
+    }
+
+    private int nameAndType(String memberName, String descriptor) {
+        int nameIndex = utf8(memberName);
+        int descriptorIndex = utf8(descriptor);
+        return entry("NameAndType " + memberName + " " + descriptor, 1, () -> {
+            poolOut.writeByte(12);
+            poolOut.writeShort(nameIndex);
+            poolOut.writeShort(descriptorIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        int classIndex = classRef(owner);
+        int natIndex = nameAndType(memberName, descriptor);
+        return entry(tag + " " + owner + "." + memberName + " " + descriptor, 1, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(classIndex);
+            poolOut.writeShort(natIndex);
+        });
+    }
+
+    /** Counts the stack slots taken by the arguments (low 16 bits) and the result (high bits) of a method descriptor. */
+    private static int descriptorSlots(String descriptor) {
+        int arguments = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            arguments += (c == 'D' || c == 'J') ? 2 : 1;
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+        char result = descriptor.charAt(i + 1);
+        int resultSlots = result == 'V' ? 0 : (result == 'D' || result == 'J') ? 2 : 1;
+        return arguments | (resultSlots << 16);
+    }
+
+    /** A branch target.  Branches to a label that is not placed yet are patched when it is. */
+    static final class Label {
+        private int position = -1;
+        private int depth = -1;
+        private final List<Integer> fixups = new ArrayList<>();
+    }
+
+    private static final class Handler {
+        final Label start;
+        final Label end;
+        final Label handler;
+        final int catchType;
+
+        Handler(Label start, Label end, Label handler, int catchType) {
+            this.start = start;
+            this.end = end;
+            this.handler = handler;
+            this.catchType = catchType;
+        }
+    }
+
+    /** The body of one method, along with the bookkeeping needed for its Code attribute. */
+    final class Code {
+        private final int access;
+        private final int nameIndex;
+        private final int descriptorIndex;
+
+        private byte[] code = new byte[64];
+        private int length = 0;
+        private int depth = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private final List<Handler> handlers = new ArrayList<>();
+
+        private Code(int access, String methodName, String descriptor) {
+            this.access = access;
+            this.nameIndex = utf8(methodName);
+            this.descriptorIndex = utf8(descriptor);
+            // the receiver and parameters occupy the first locals.
+            this.maxLocals = ((access & ACC_STATIC) != 0 ? 0 : 1) + (descriptorSlots(descriptor) & 0xFFFF);
+        }
+
+        int length() {
+            return length;
+        }
+
+        /** Makes sure locals up to (but not including) the given slot are counted in max_locals. */
+        void reserveLocals(int slots) {
+            maxLocals = Math.max(maxLocals, slots);
+        }
+
+        private void u1(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte)value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta) {
+            depth += delta;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        /** Emits an instruction without operands. */
+        void op(int opcode) {
+            u1(opcode);
+            adjust(stackEffect(opcode));
+        }
+
+        private int stackEffect(int opcode) {
+            switch (opcode) {
+                case ACONST_NULL: case ICONST_0: case ICONST_1: case DUP:
+                    return 1;
+                case DCONST_0: case DCONST_1: case DUP2:
+                    return 2;
+                case POP: case IXOR: case ARETURN: case AALOAD:
+                    return -1;
+                case POP2: case DADD: case DSUB: case DMUL:
+                    return -2;
+                case DCMPL: case DCMPG: case AASTORE:
+                    return -3;
+                case DNEG: case RETURN:
+                    return 0;
+                default:
+                    throw new IllegalArgumentException("No stack effect known for opcode " + opcode + ".");
+            }
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                u1(LDC_W);
+                u2(integerConstant(value));
+            }
+            adjust(1);
+        }
+
+        void dconst(double value) {
+            // dconst_0 would turn -0.0 into 0.0, so compare bit patterns.
+            if (Double.doubleToRawLongBits(value) == 0L) {
+                u1(DCONST_0);
+            } else if (value == 1.0) {
+                u1(DCONST_1);
+            } else {
+                u1(LDC2_W);
+                u2(doubleConstant(value));
+            }
+            adjust(2);
+        }
+
+        /** Loads or stores a local.  Locals are limited to the 256 that the short instruction forms can reach. */
+        void local(int opcode, int slot) {
+            u1(opcode);
+            u1(slot);
+            switch (opcode) {
+                case ILOAD: case ALOAD: adjust(1); break;
+                case DLOAD:             adjust(2); break;
+                case ISTORE: case ASTORE: adjust(-1); break;
+                case DSTORE:            adjust(-2); break;
+                default:
+                    throw new IllegalArgumentException("Not a local variable instruction: " + opcode + ".");
+            }
+        }
+
+        void type(int opcode, String internalName) {
+            u1(opcode);
+            u2(classRef(internalName));
+            // checkcast, instanceof and anewarray all replace the top of the stack.
+        }
+
+        void getstatic(String owner, String fieldName, String descriptor) {
+            u1(GETSTATIC);
+            u2(memberRef(9, owner, fieldName, descriptor));
+            adjust(descriptor.equals("D") || descriptor.equals("J") ? 2 : 1);
+        }
+
+        void invoke(int opcode, String owner, String methodName, String descriptor) {
+            int slots = descriptorSlots(descriptor);
+            int arguments = slots & 0xFFFF;
+            int receiver = opcode == INVOKESTATIC ? 0 : 1;
+            u1(opcode);
+            if (opcode == INVOKEINTERFACE) {
+                u2(memberRef(11, owner, methodName, descriptor));
+                u1(arguments + 1);
+                u1(0);
+            } else {
+                u2(memberRef(10, owner, methodName, descriptor));
+            }
+            adjust((slots >>> 16) - arguments - receiver);
+        }
+
+        /** Emits a branch.  Conditional branches pop their operands before the target's stack depth is recorded. */
+        void jump(int opcode, Label target) {
+            int start = length;
+            u1(opcode);
+            if (opcode == IF_ICMPEQ || opcode == IF_ICMPNE) {
+                adjust(-2);
+            } else if (opcode != GOTO) {
+                adjust(-1);
+            }
+            if (target.depth < 0) target.depth = depth;
+
+            if (target.position >= 0) {
+                u2(target.position - start);
+            } else {
+                target.fixups.add(start);
+                u2(0);
+            }
+        }
+
+        /** Places a label at the current position, patching any branches already made to it. */
+        void mark(Label label) {
+            // after an unconditional jump, the stack depth is whatever the branches to here left.
+            if (label.depth >= 0) depth = label.depth;
+            else label.depth = depth;
+            place(label, length);
+        }
+
+        /** Makes an unplaced label point to the same position as one already placed. */
+        void alias(Label label, Label target) {
+            place(label, target.position);
+        }
+
+        private void place(Label label, int position) {
+            label.position = position;
+            for (int start : label.fixups) {
+                int offset = position - start;
+                code[start + 1] = (byte)(offset >> 8);
+                code[start + 2] = (byte)offset;
+            }
+            label.fixups.clear();
+        }
+
+        /**
+         * Adds an exception handler covering [start, end).  The handler's code starts at handler,
+         * where the stack holds only the caught exception.
+         */
+        void handler(Label start, Label end, Label handler, String exceptionType) {
+            handlers.add(new Handler(start, end, handler, classRef(exceptionType)));
+            handler.depth = 1;
+        }
+
+        private void writeTo(DataOutputStream out, int codeIndex) throws IOException {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+
+            out.writeShort(codeIndex);
+            out.writeInt(12 + length + handlers.size() * 8);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(handlers.size());
+            for (Handler handler : handlers) {
+                out.writeShort(handler.start.position);
+                out.writeShort(handler.end.position);
+                out.writeShort(handler.handler.position);
+                out.writeShort(handler.catchType);
+            }
+            out.writeShort(0);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Entry point of a function body compiled by the Jit.
+ */
+interface CompiledFunction {
+    /** Returned by call() when the arguments don't match the types the code was compiled for. */
+    Object FALLBACK = new Object();
+    /** Returned by call() and run() when the body ended in a tail call, which it left pending in the Interpreter. */
+    Object TAIL_CALL = new Object();
+
+    Object call(Interpreter interpreter, Object[] arguments);
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * How the statement the Interpreter just executed finished.
+ * Anything but NORMAL makes the enclosing blocks stop early, until the loop or function it is meant for handles it.
+ */
+enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN,
+    /** a return whose value is a call to a Lox function, left for LoxFunction to make; see Interpreter.tailCallee. */
+    TAIL_CALL
+}
@@ -1,47 +1,111 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
+/**
+ * Storage for variable values in a single scope.
+ * The global scope is bound late and by name, so it keeps a map from names to GlobalCells.
+ * Names are interned symbols (see Symbols), so the map is keyed by identity.
+ * A cell lives as long as the global scope does, so variable nodes can hold on to the cell once they find it.
+ * Every other scope is laid out by the Resolver.  Only locals a closure captures get a slot here; the rest live in
+ * the Interpreter's call frame, and scopes without captured locals get no Environment at all.  Blocks that run at
+ * most once per run of their enclosing scope keep their captured locals in its Environment.  The slots are numbered
+ * when a scope that keeps an Environment has been resolved: first its own captured locals in declaration order,
+ * then those of the blocks merged into it, block by block in the order the blocks end.
+ * Values are kept in an array and accessed by (distance, slot) pairs.
+ */
 public class Environment {
+    private static final Object[] EMPTY = {};
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();    
+    private final Map<String, GlobalCell> values;
+    private Object[] slots = EMPTY;
+    private int count = 0;
+
     private enum VarState {
         UNINITIALIZED
     }
 
+    /** Value of a local declared without an initializer, for locals kept outside any Environment. */
+    static final Object UNINITIALIZED = VarState.UNINITIALIZED;
+
+    /** A mutable box holding the value of a single global variable. */
+    static final class GlobalCell {
+        private Object value;
+
+        private GlobalCell(Object value) {
+            this.value = value;
+        }
+
+        Object get(Token name) throws RuntimeError {
+            if (value == VarState.UNINITIALIZED) {
+                throw new RuntimeError(name, "Illegal variable access before initialization.");
+            }
+            return value;
+        }
+
+        void set(Object value) {
+            this.value = value;
+        }
+    }
+
     Environment() {
         enclosing = null;
+        values = new IdentityHashMap<>();
     }
 
     Environment(Environment enclosing) {
         this.enclosing = enclosing;
+        this.values = null;
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    /** Creates a local scope with room for the given number of slots before it has to grow. */
+    Environment(Environment enclosing, int capacity) {
+        this.enclosing = enclosing;
+        this.values = null;
+        this.slots = capacity == 0 ? EMPTY : new Object[capacity];
     }
 
-    void declare(String name) {
-        values.put(name, VarState.UNINITIALIZED);
+    void define(String name, Object value) {
+        if (values != null) {
+            GlobalCell cell = values.get(name);
+            if (cell == null) {
+                values.put(name, new GlobalCell(value));
+            } else {
+                cell.set(value);
+            }
+            return;
+        }
+
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(4, count * 2));
+        }
+        slots[count++] = value;
     }
 
     Object get(Token name) throws RuntimeError {
-        if (values.containsKey(name.lexeme)) {
-            if (values.get(name.lexeme) != VarState.UNINITIALIZED) {
-                return values.get(name.lexeme);
-            } else {
-                throw new RuntimeError(name, "Illegal variable access before initialization.");
-            }
+        return cell(name).get(name);
+    }
+
+    /**
+     * Finds the cell holding the global variable with the given name.
+     * @throws RuntimeError if no such global has been defined.
+     */
+    GlobalCell cell(Token name) throws RuntimeError {
+        if (values != null) {
+            GlobalCell cell = values.get(name.lexeme);
+            if (cell != null) return cell;
         }
 
-        if (enclosing != null) return enclosing.get(name);
+        if (enclosing != null) return enclosing.cell(name);
 
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     Environment ancestor(int distance) {
@@ -54,20 +118,15 @@ public class Environment {
     }
 
     void assign(Token name, Object value) throws RuntimeError {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
+        cell(name).set(value);
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    /** Defines a local in the slot the Resolver gave it, which need not come after those defined so far. */
+    void defineAt(int slot, Object value) {
+        slots[slot] = value;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 }
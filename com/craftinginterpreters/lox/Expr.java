@@ -34,6 +34,9 @@ public abstract class Expr {
 
 		public final Token name;
 		public final Expr value;
+
+		Environment.GlobalCell global;
+		VarSlot slot;
 	}
 	public static class Binary extends Expr {
 		Binary(Expr left, Token operator, Expr right) {
@@ -50,6 +53,8 @@ public abstract class Expr {
 		public final Expr left;
 		public final Token operator;
 		public final Expr right;
+
+		Specialization specialization = Specialization.UNINITIALIZED;
 	}
 	public static class Call extends Expr {
 		Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -66,6 +71,8 @@ public abstract class Expr {
 		public final Expr callee;
 		public final Token paren;
 		public final List<Expr> arguments;
+
+		Specialization specialization = Specialization.UNINITIALIZED;
 	}
 	public static class Fun extends Expr {
 		Fun(List<Token> params, List<Stmt> body, Token keyword) {
@@ -82,6 +89,10 @@ public abstract class Expr {
 		public final List<Token> params;
 		public final List<Stmt> body;
 		public final Token keyword;
+
+		FunctionProfile profile = new FunctionProfile();
+		FrameLayout layout = new FrameLayout();
+		LazyBody lazyBody;
 	}
 	public static class Get extends Expr {
 		Get(Expr object, Token name) {
@@ -96,6 +107,8 @@ public abstract class Expr {
 
 		public final Expr object;
 		public final Token name;
+
+		PropertyCache cache = new PropertyCache();
 	}
 	public static class Set extends Expr {
 		Set(Expr object, Token name, Expr value) {
@@ -112,6 +125,8 @@ public abstract class Expr {
 		public final Expr object;
 		public final Token name;
 		public final Expr value;
+
+		PropertyCache cache = new PropertyCache();
 	}
 	public static class Super extends Expr {
 		Super(Token keyword, Token method) {
@@ -126,6 +141,9 @@ public abstract class Expr {
 
 		public final Token keyword;
 		public final Token method;
+
+		VarSlot slot;
+		VarSlot thisSlot;
 	}
 	public static class This extends Expr {
 		This(Token keyword) {
@@ -138,6 +156,8 @@ public abstract class Expr {
 		}
 
 		public final Token keyword;
+
+		VarSlot slot;
 	}
 	public static class Grouping extends Expr {
 		Grouping(Expr expression) {
@@ -178,6 +198,8 @@ public abstract class Expr {
 		public final Expr left;
 		public final Token operator;
 		public final Expr right;
+
+		Specialization specialization = Specialization.UNINITIALIZED;
 	}
 	public static class Unary extends Expr {
 		Unary(Token operator, Expr right) {
@@ -192,6 +214,8 @@ public abstract class Expr {
 
 		public final Token operator;
 		public final Expr right;
+
+		Specialization specialization = Specialization.UNINITIALIZED;
 	}
 	public static class Ternary extends Expr {
 		Ternary(Expr left, Expr center, Expr right, Token leftOperator, Token rightOperator) {
@@ -224,6 +248,9 @@ public abstract class Expr {
 		}
 
 		public final Token name;
+
+		Environment.GlobalCell global;
+		VarSlot slot;
 	}
 	public static class Increment extends Expr {
 		Increment(Expr.Variable identifier, Token operator, IncrementType type) {
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Layout of the frame a function's calls run in, worked out by the Resolver.
+ * Locals no closure captures live in a flat array of size slots: "this" first for methods, then the parameters,
+ * then the body's own locals.  Captured locals live in Environments instead, so closures can outlive the call.
+ */
+class FrameLayout {
+    int size = 0;
+    /**
+     * Frame slots of the parameters (and "this") that are captured, which take the first Environment slots.
+     * Null if nothing in the function's outermost scope is captured, in which case calls create no Environment.
+     */
+    int[] captured = null;
+    /** Size of the Environment each call creates, which also holds captured locals of blocks merged into it. */
+    int environmentSize = 0;
+}
@@ -0,0 +1,14 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Tiering state shared by every LoxFunction created from the same declaration.
+ * Closures and bound methods of one declaration count their calls together and share compiled code.
+ */
+class FunctionProfile {
+    int calls = 0;
+    /** Set once the Jit has found something in the body it cannot compile. */
+    boolean uncompilable = false;
+    CompiledFunction compiled = null;
+    /** Parameter types the current code was compiled for, widened each time a call falls back. */
+    Jit.Kind[] parameterKinds = null;
+}
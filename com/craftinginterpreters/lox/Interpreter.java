@@ -1,16 +1,37 @@
 package com.craftinginterpreters.lox;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 public class Interpreter implements Expr.Visitor<Object>, 
                                     Stmt.Visitor<Void> {
     
     final Environment globals = new Environment();
+    /** the names of every source scanned for this interpreter. */
+    final Symbols symbols = new Symbols();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    /** locals of the current call that no closure captures, laid out by the Resolver.  See FrameLayout. */
+    private Object[] frame = LoxCallable.NO_ARGUMENTS;
+
+    // break, continue and return set these instead of throwing, and blocks stop as soon as completion isn't NORMAL.
+    private Completion completion = Completion.NORMAL;
+    private Object returnValue = null;
+    private Token loopKeyword = null;
+
+    // a return marks its call as being in tail position, and visitCallExpr leaves a call to a Lox function
+    // pending here instead of making it; LoxFunction.completeTailCalls() then makes it in constant stack.
+    private Expr.Call tailCall = null;
+    LoxFunction tailCallee = null;
+    Object tailReceiver = null;
+    Object[] tailArguments = null;
+
+    /** When true, Binary, Logical, Unary and Call nodes specialize on the types they observe. */
+    boolean specializeNodes = true;
+
+    /** Number of calls after which a function is handed to the Jit.  Negative values turn the Jit off. */
+    int jitThreshold = 1000;
 
     Interpreter() {
         globals.define("clock", new LoxCallable<Long>() {
@@ -21,7 +42,12 @@ public class Interpreter implements Expr.Visitor<Object>,
             }
 
             @Override
-            public Long call(Interpreter interpreter, List<Object> arguments) {
+            public Long call(Interpreter interpreter, Object[] arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Long call0(Interpreter interpreter) {
                 return System.currentTimeMillis() / (long)1000.0;
             }
 
@@ -93,34 +119,259 @@ public class Interpreter implements Expr.Visitor<Object>,
 
             for (Stmt statement : statements) {
                 execute(statement);
+                if (completion != Completion.NORMAL) break;
             }
         } finally {
             this.environment = previous;
         }
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    /**
+     * Executes a function body and returns the value its return statement gave, or nil.
+     * If the body ended in a tail call, tailCallee is set and the call is left to the caller.
+     * A break or continue that escapes the body is rethrown as a LoopInterrupt, for a loop in the caller to catch.
+     */
+    Object executeBody(List<Stmt> body, Environment environment, Object[] frame) {
+        Object[] previous = this.frame;
+        try {
+            this.frame = frame;
+            executeBlock(body, environment);
+        } finally {
+            this.frame = previous;
+        }
+        switch (completion) {
+            case NORMAL:
+                return null;
+            case RETURN:
+                Object value = returnValue;
+                completion = Completion.NORMAL;
+                returnValue = null;
+                return value;
+            case TAIL_CALL:
+                // the caller finds the call in tailCallee.
+                completion = Completion.NORMAL;
+                return null;
+            default:
+                completion = Completion.NORMAL;
+                throw new LoopInterrupt(loopKeyword, "Loop interrupt not semantically valid.");
+        }
+    }
+
+    // the slot is kept in the node itself, so nothing outlives the AST it was resolved for.
+    void resolve(Expr expr, int depth, int slot) {
+        VarSlot resolved = new VarSlot(depth, slot);
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable)expr).slot = resolved;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign)expr).slot = resolved;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This)expr).slot = resolved;
+        } else if (expr instanceof Expr.Super) {
+            ((Expr.Super)expr).slot = resolved;
+        }
+    }
+
+    /** Makes room in the frame of top-level code for the locals of its blocks. */
+    void reserveFrame(int size) {
+        if (frame.length < size) frame = Arrays.copyOf(frame, size);
+    }
+
+    /** The room reserved so far in the frame of top-level code. */
+    int frameSize() {
+        return frame.length;
+    }
+
+    /** Whether the Resolver found the variable expr refers to in a local scope. */
+    boolean isResolved(Expr expr) {
+        if (expr instanceof Expr.Variable) return ((Expr.Variable)expr).slot != null;
+        if (expr instanceof Expr.Assign) return ((Expr.Assign)expr).slot != null;
+        return false;
     }
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) throws RuntimeError {
+        if (specializeNodes && expr.specialization == Specialization.NUMBER) {
+            // operands are evaluated unboxed, so nested arithmetic only boxes its final result.
+            try {
+                if (isComparison(expr.operator.type)) return evaluateComparison(expr);
+                return evaluateArithmetic(expr);
+            } catch (UnexpectedValue e) {
+                return e.value;
+            }
+        }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
-        
+
+        if (specializeNodes) {
+            switch (expr.specialization) {
+                case STRING:
+                    if (LoxString.isString(left) && LoxString.isString(right)) {
+                        return LoxString.concat(left, right);
+                    }
+                    expr.specialization = Specialization.GENERIC;
+                    break;
+                case UNINITIALIZED:
+                    expr.specialization = specializeBinary(expr.operator, left, right);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return binary(expr.operator, left, right);
+    }
+
+    private Specialization specializeBinary(Token operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) return Specialization.NUMBER;
+        if (operator.type == TokenType.PLUS && LoxString.isString(left) && LoxString.isString(right)) {
+            return Specialization.STRING;
+        }
+        return Specialization.GENERIC;
+    }
+
+    private static boolean isComparison(TokenType type) {
+        switch (type) {
+            case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL: case BANG_EQUAL: case EQUAL_EQUAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Evaluates an expression whose value is expected to be a number, without boxing it.
+     * Arithmetic nodes specialized on numbers pass unboxed doubles all the way down.
+     * @throws UnexpectedValue holding the value if it isn't a number.
+     */
+    private double evaluateDouble(Expr expr) throws UnexpectedValue {
+        Object value;
+        if (expr instanceof Expr.Variable) {
+            value = visitVariableExpr((Expr.Variable)expr);
+            if (value instanceof Double) return (double)value;
+            throw new UnexpectedValue(value);
+        }
+
+        if (specializeNodes) {
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                if (binary.specialization == Specialization.NUMBER && !isComparison(binary.operator.type)) {
+                    return evaluateArithmetic(binary);
+                }
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary)expr;
+                if (unary.specialization == Specialization.NUMBER) return evaluateNegation(unary);
+            } else if (expr instanceof Expr.Grouping) {
+                return evaluateDouble(((Expr.Grouping)expr).expression);
+            }
+        }
+
+        value = evaluate(expr);
+        if (value instanceof Double) return (double)value;
+        throw new UnexpectedValue(value);
+    }
+
+    /**
+     * Evaluates an expression used as a condition, returning its truthiness.
+     * Comparisons specialized on numbers never box their result.
+     */
+    private boolean evaluateCondition(Expr expr) throws RuntimeError {
+        if (specializeNodes && expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            if (binary.specialization == Specialization.NUMBER && isComparison(binary.operator.type)) {
+                try {
+                    return evaluateComparison(binary);
+                } catch (UnexpectedValue e) {
+                    return isTruthy(e.value);
+                }
+            }
+        }
+
+        return isTruthy(evaluate(expr));
+    }
+
+    /*
+     * the operands of a node specialized on numbers.  If one turns out not to be a number,
+     * the node goes generic and its result is thrown to the caller in an UnexpectedValue.
+     */
+
+    private double leftOperand(Expr.Binary expr) throws UnexpectedValue {
+        try {
+            return evaluateDouble(expr.left);
+        } catch (UnexpectedValue e) {
+            expr.specialization = Specialization.GENERIC;
+            throw new UnexpectedValue(binary(expr.operator, e.value, evaluate(expr.right)));
+        }
+    }
+
+    private double rightOperand(Expr.Binary expr, double left) throws UnexpectedValue {
+        try {
+            return evaluateDouble(expr.right);
+        } catch (UnexpectedValue e) {
+            expr.specialization = Specialization.GENERIC;
+            throw new UnexpectedValue(binary(expr.operator, left, e.value));
+        }
+    }
+
+    private double evaluateArithmetic(Expr.Binary expr) throws UnexpectedValue {
+        double left = leftOperand(expr);
+        double right = rightOperand(expr, left);
+        switch (expr.operator.type) {
+            case MINUS: return left - right;
+            case SLASH:
+                if (right == 0) {
+                    throw new RuntimeError(expr.operator, "Cannot divide by 0.");
+                }
+                return left / right;
+            case STAR:  return left * right;
+            case PLUS:  return left + right;
+            case COMMA: return right;
+            default:
+                throw new RuntimeError(expr.operator, "Unrecognized binary operator '" + expr.operator.lexeme + "'.");
+        }
+    }
+
+    private boolean evaluateComparison(Expr.Binary expr) throws UnexpectedValue {
+        double left = leftOperand(expr);
+        double right = rightOperand(expr, left);
         switch (expr.operator.type) {
+            case GREATER:       return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS:          return left < right;
+            case LESS_EQUAL:    return left <= right;
+            // same semantics as Double.equals(), which isEqual() uses for boxed numbers.
+            case BANG_EQUAL:    return Double.doubleToLongBits(left) != Double.doubleToLongBits(right);
+            case EQUAL_EQUAL:   return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+            default:
+                throw new RuntimeError(expr.operator, "Unrecognized binary operator '" + expr.operator.lexeme + "'.");
+        }
+    }
+
+    private double evaluateNegation(Expr.Unary expr) throws RuntimeError {
+        try {
+            return -evaluateDouble(expr.right);
+        } catch (UnexpectedValue e) {
+            expr.specialization = Specialization.GENERIC;
+            checkNumberOperand(expr.operator, e.value);
+            return -(double)e.value;
+        }
+    }
+
+    /** Binary operation on operands of any type. */
+    static Object binary(Token operator, Object left, Object right) throws RuntimeError {
+        switch (operator.type) {
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left - (double)right;
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 // catch divide-by-zero and report.
                 if ((double)right == 0) {
-                    throw new RuntimeError(expr.operator, "Cannot divide by 0.");
+                    throw new RuntimeError(operator, "Cannot divide by 0.");
                 }
                 return (double)left / (double)right;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left * (double)right;
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
@@ -128,25 +379,23 @@ public class Interpreter implements Expr.Visitor<Object>,
                 }
 
                 // if either operand is a string, cast the other to a string before concatenation.
-                if (left instanceof String || right instanceof String) {
-                    if (!(left instanceof String))   left = Util.stringify(left);
-                    if (!(right instanceof String)) right = Util.stringify(right);
-                    return (String)left + (String)right;
+                if (LoxString.isString(left) || LoxString.isString(right)) {
+                    return LoxString.concat(left, right);
                 }
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or one string and one string-castable object.");
+                throw new RuntimeError(operator, "Operands must be two numbers or one string and one string-castable object.");
 
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left <= (double)right;
             
             case BANG_EQUAL:
@@ -157,7 +406,7 @@ public class Interpreter implements Expr.Visitor<Object>,
                 return right;
             
             default:
-                throw new RuntimeError(expr.operator, "Unrecognized binary operator '" + expr.operator.lexeme + "'.");
+                throw new RuntimeError(operator, "Unrecognized binary operator '" + operator.lexeme + "'.");
         }
     }
 
@@ -173,14 +422,22 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) throws RuntimeError {
+        // "!" only looks at truthiness, so it needs no specialization of its own.
+        if (expr.operator.type == TokenType.BANG) return !evaluateCondition(expr.right);
+
+        if (specializeNodes && expr.specialization == Specialization.NUMBER) return evaluateNegation(expr);
+
         Object right = evaluate(expr.right);
 
+        if (specializeNodes && expr.specialization == Specialization.UNINITIALIZED) {
+            boolean isNumber = expr.operator.type == TokenType.MINUS && right instanceof Double;
+            expr.specialization = isNumber ? Specialization.NUMBER : Specialization.GENERIC;
+        }
+
         switch (expr.operator.type) {
             case MINUS:
                 checkNumberOperand(expr.operator, right);
                 return -(double)right;
-            case BANG:
-                return !isTruthy(right);
             
             default:
                 throw new RuntimeError(expr.operator, "Unrecognized unary operator '" + expr.operator.lexeme + "'.");
@@ -192,8 +449,7 @@ public class Interpreter implements Expr.Visitor<Object>,
         if (expr.leftOperator.type == TokenType.QUESTION_MARK &&
                 expr.rightOperator.type == TokenType.COLON) {
             // conditional operation.
-            Object condition = evaluate(expr.left);
-            if (isTruthy(condition)) {
+            if (evaluateCondition(expr.left)) {
                 return evaluate(expr.center);
             } else {
                 return evaluate(expr.right);
@@ -204,25 +460,28 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) throws RuntimeError {
+    static void checkNumberOperand(Token operator, Object operand) throws RuntimeError {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand '" + operand.toString() + "' must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) throws RuntimeError {
+    static void checkNumberOperands(Token operator, Object left, Object right) throws RuntimeError {
         checkNumberOperand(operator, left);
         checkNumberOperand(operator, right);
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        // a string built by concatenation equals a literal with the same characters.
+        if (a instanceof LoxString) a = a.toString();
+        if (b instanceof LoxString) b = b.toString();
 
         return a.equals(b);
     }
@@ -242,25 +501,57 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        if (stmt.initializer == null) {
-            environment.declare(stmt.name.lexeme);
+        Object value = stmt.initializer == null ? Environment.UNINITIALIZED : evaluate(stmt.initializer);
+        define(stmt.slot, stmt.name, value);
+        return null;
+    }
+
+    /** Defines a local in the slot the Resolver gave it, or a global by name. */
+    private void define(VarSlot slot, Token name, Object value) {
+        if (slot == null) {
+            environment.define(name.lexeme, value);
+        } else if (slot.depth == VarSlot.FRAME) {
+            frame[slot.index] = value;
         } else {
-            environment.define(stmt.name.lexeme, evaluate(stmt.initializer));
+            environment.defineAt(slot.index, value);
         }
+    }
 
-        return null;
+    private Object getLocal(VarSlot slot) {
+        if (slot.depth == VarSlot.FRAME) return frame[slot.index];
+        return environment.getAt(slot.depth, slot.index);
+    }
+
+    private void setLocal(VarSlot slot, Object value) {
+        if (slot.depth == VarSlot.FRAME) {
+            frame[slot.index] = value;
+        } else {
+            environment.assignAt(slot.depth, slot.index, value);
+        }
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
         // return environment.get(expr.name);
-        return lookUpVariable(expr.name, expr);
+        if (expr.global != null) return expr.global.get(expr.name);
+
+        VarSlot slot = expr.slot;
+        if (slot != null) {
+            Object value = getLocal(slot);
+            if (value == Environment.UNINITIALIZED) {
+                throw new RuntimeError(expr.name, "Illegal variable access before initialization.");
+            }
+            return value;
+        }
+
+        // unresolved names are globals.  Bind the node to its cell so later reads skip the lookup.
+        expr.global = globals.cell(expr.name);
+        return expr.global.get(expr.name);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, VarSlot slot) {
+        if (slot != null) {
+            return getLocal(slot);
         } else {
             return globals.get(name);
         }
@@ -270,18 +561,48 @@ public class Interpreter implements Expr.Visitor<Object>,
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
         // environment.assign(expr.name, value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.global != null) {
+            expr.global.set(value);
+            return value;
+        }
+
+        VarSlot slot = expr.slot;
+        if (slot != null) {
+            setLocal(slot, value);
         } else {
-            globals.assign(expr.name, value);
+            expr.global = globals.cell(expr.name);
+            expr.global.set(value);
         }
         return value;
     }
 
+    private void assignVariable(Expr.Variable expr, Object value) {
+        if (expr.global != null) {
+            expr.global.set(value);
+            return;
+        }
+
+        VarSlot slot = expr.slot;
+        if (slot != null) {
+            setLocal(slot, value);
+        } else {
+            expr.global = globals.cell(expr.name);
+            expr.global.set(value);
+        }
+    }
+
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
+        if (stmt.environmentSize > 0) {
+            executeBlock(stmt.statements, new Environment(environment, stmt.environmentSize));
+            return null;
+        }
+
+        // the block's locals live in the frame or an enclosing Environment, so it runs in place.
+        for (Stmt statement : stmt.statements) {
+            execute(statement);
+            if (completion != Completion.NORMAL) break;
+        }
         return null;
     }
 
@@ -301,7 +622,7 @@ public class Interpreter implements Expr.Visitor<Object>,
         // parser returns all if statements within an ifElse statement.
         boolean hasExecutedBranch = false;
         for (Stmt.If statement : stmt.ifBranches) {
-            if (isTruthy(evaluate(statement.condition))) {
+            if (evaluateCondition(statement.condition)) {
                 execute(statement.body);
                 hasExecutedBranch = true;
                 break;
@@ -318,6 +639,25 @@ public class Interpreter implements Expr.Visitor<Object>,
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
 
+        if (specializeNodes) {
+            switch (expr.specialization) {
+                case BOOLEAN:
+                    if (left instanceof Boolean) {
+                        // the parser only builds Logical nodes for "and" and "or".
+                        boolean isOr = expr.operator.type == TokenType.OR;
+                        if ((boolean)left == isOr) return left;
+                        return evaluate(expr.right);
+                    }
+                    expr.specialization = Specialization.GENERIC;
+                    break;
+                case UNINITIALIZED:
+                    expr.specialization = left instanceof Boolean ? Specialization.BOOLEAN : Specialization.GENERIC;
+                    break;
+                default:
+                    break;
+            }
+        }
+
         if (expr.operator.type == TokenType.OR) {
             if (isTruthy(left)) return left;
             else return evaluate(expr.right);
@@ -331,21 +671,25 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) throws RuntimeError {
-        Object condition = evaluate(stmt.condition);
-        while (isTruthy(condition)) {
+        while (evaluateCondition(stmt.condition)) {
+            Completion signal;
             try {
                 execute(stmt.body);
-                condition = evaluate(stmt.condition);
+                signal = completion;
             } catch (LoopInterrupt interrupt) {
-                if (interrupt.token.type == TokenType.CONTINUE) {
-                    condition = evaluate(stmt.condition);
-                    continue;
-                } else if (interrupt.token.type == TokenType.BREAK) {
-                    break;
-                } else {
-                    throw new RuntimeError(interrupt.token, "Unimplmented loop interrupt.");
-                }
-            } 
+                // a break or continue inside a function called from the body.
+                signal = interrupt.token.type == TokenType.BREAK ? Completion.BREAK : Completion.CONTINUE;
+            }
+
+            if (signal == Completion.BREAK) {
+                completion = Completion.NORMAL;
+                break;
+            } else if (signal == Completion.CONTINUE) {
+                completion = Completion.NORMAL;
+            } else if (signal != Completion.NORMAL) {
+                // a return or tail call leaves the whole function.
+                break;
+            }
         }
 
         return null;
@@ -353,7 +697,9 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitLoopKeywordStmt(Stmt.LoopKeyword stmt) {
-        throw new LoopInterrupt(stmt.token, "Loop interrupt not semantically valid.");
+        completion = stmt.token.type == TokenType.BREAK ? Completion.BREAK : Completion.CONTINUE;
+        loopKeyword = stmt.token;
+        return null;
     }
 
     @Override
@@ -364,21 +710,25 @@ public class Interpreter implements Expr.Visitor<Object>,
             throw new RuntimeError(expr.identifier.name, "Cannot apply increment operation to non-integer value.");
         }
 
-        Double d = (double)value;
+        double d = (double)value;
+        // box each result once: the old value is returned as it is, the new one is stored and returned as one object.
+        Object updated;
 
         switch (expr.type) {
             case POST_DECREMENT:
-                environment.assign(expr.identifier.name, d - 1);
-                return d;
+                assignVariable(expr.identifier, d - 1);
+                return value;
             case POST_INCREMENT:
-                environment.assign(expr.identifier.name, d + 1);
-                return d;
+                assignVariable(expr.identifier, d + 1);
+                return value;
             case PRE_DECREMENT:
-                environment.assign(expr.identifier.name, d - 1);
-                return d - 1;
+                updated = d - 1;
+                assignVariable(expr.identifier, updated);
+                return updated;
             case PRE_INCREMENT:
-                environment.assign(expr.identifier.name, d + 1);
-                return d + 1;
+                updated = d + 1;
+                assignVariable(expr.identifier, updated);
+                return updated;
             default:
                 throw new RuntimeError(expr.operator, "Unrecognized increment operator.");
         }
@@ -386,15 +736,161 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitCallExpr(Expr.Call expr) throws RuntimeError {
-        Object callee = evaluate(expr.callee);
+        boolean isTailCall = expr == tailCall;
+        tailCall = null;
+
+        Object callee;
+        if (expr.callee instanceof Expr.Get) {
+            // obj.method(args) calls the method with obj as "this" instead of creating a bound method.
+            Expr.Get get = (Expr.Get)expr.callee;
+            Object object = evaluate(get.object);
+            if (object instanceof LoxInstance) {
+                LoxFunction method = get.cache.method((LoxInstance)object, get.name);
+                if (method != null && !method.isAutoInvoke) {
+                    return invoke(method, object, expr, isTailCall);
+                }
+            }
+            callee = getProperty(get, object);
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            return invoke(findSuperMethod(superExpr), thisForSuper(superExpr), expr, isTailCall);
+        } else {
+            callee = evaluate(expr.callee);
+        }
+
+        if (isTailCall && callee instanceof LoxFunction) {
+            LoxFunction function = (LoxFunction)callee;
+            return invoke(function, function.receiver, expr, true);
+        }
+
+        if (specializeNodes) {
+            // calling through the concrete class instead of LoxCallable keeps the call site monomorphic.
+            switch (expr.specialization) {
+                case FUNCTION:
+                    if (callee instanceof LoxFunction) {
+                        LoxFunction function = (LoxFunction)callee;
+                        return invoke(function, function.receiver, expr, false);
+                    }
+                    expr.specialization = Specialization.GENERIC;
+                    break;
+                case CLASS:
+                    if (callee instanceof LoxClass) {
+                        LoxClass klass = (LoxClass)callee;
+                        if (klass.initializer == null) break;
+                        LoxInstance instance = new LoxInstance(klass);
+                        invoke(klass.initializer, instance, expr, false);
+                        return instance;
+                    }
+                    expr.specialization = Specialization.GENERIC;
+                    break;
+                case UNINITIALIZED:
+                    if (callee instanceof LoxFunction) {
+                        expr.specialization = Specialization.FUNCTION;
+                    } else if (callee instanceof LoxClass) {
+                        expr.specialization = Specialization.CLASS;
+                    } else {
+                        expr.specialization = Specialization.GENERIC;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        // arguments are evaluated before the callee is checked, and calls with up to three use callN().
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return callable(callee, expr.paren, 0).call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                return callable(callee, expr.paren, 1).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return callable(callee, expr.paren, 2).call2(this, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                return callable(callee, expr.paren, 3).call3(this, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(arguments);
+                return callable(callee, expr.paren, values.length).call(this, values);
+            }
+        }
+    }
+
+    /**
+     * Calls a function with the given receiver as "this", through the entry point for the number of arguments.
+     * A tail call is only prepared: it is left in tailCallee for LoxFunction to make, and nil is returned.
+     */
+    private Object invoke(LoxFunction method, Object receiver, Expr.Call expr, boolean isTailCall) throws RuntimeError {
+        List<Expr> arguments = expr.arguments;
+        if (isTailCall) {
+            prepareTailCall(method, receiver, evaluateArguments(arguments), expr.paren);
+            completion = Completion.TAIL_CALL;
+            return null;
+        }
+
+        switch (arguments.size()) {
+            case 0:
+                checkArity(expr.paren, method.arity(), 0);
+                return method.call0(this, receiver);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(expr.paren, method.arity(), 1);
+                return method.call1(this, receiver, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(expr.paren, method.arity(), 2);
+                return method.call2(this, receiver, a, b);
+            }
+            case 3: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                Object c = evaluate(arguments.get(2));
+                checkArity(expr.paren, method.arity(), 3);
+                return method.call3(this, receiver, a, b, c);
+            }
+            default: {
+                Object[] values = evaluateArguments(arguments);
+                checkArity(expr.paren, method.arity(), values.length);
+                return method.call(this, receiver, values);
+            }
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    /** Leaves a call for LoxFunction.completeTailCalls() to make. */
+    void prepareTailCall(LoxFunction function, Object receiver, Object[] arguments, Token paren) throws RuntimeError {
+        checkArity(paren, function.arity(), arguments.length);
+        tailCallee = function;
+        tailReceiver = receiver;
+        tailArguments = arguments;
+    }
+
+    private Object[] evaluateArguments(List<Expr> expressions) {
+        Object[] arguments = new Object[expressions.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expressions.get(i));
         }
+        return arguments;
+    }
 
+    /** Calls a value of any type, checking that it is callable and takes that many arguments. */
+    Object call(Object callee, Object[] arguments, Token paren) throws RuntimeError {
+        return callable(callee, paren, arguments.length).call(this, arguments);
+    }
+
+    /** Checks that callee is callable and takes that many arguments. */
+    private LoxCallable<Object> callable(Object callee, Token paren, int argumentCount) throws RuntimeError {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes.");
+            throw new RuntimeError(paren, "Can only call functions and classes.");
         }
 
         // we checked type above.  As far as checking the generic type here, 
@@ -402,26 +898,35 @@ public class Interpreter implements Expr.Visitor<Object>,
         @SuppressWarnings("unchecked")
         LoxCallable<Object> function = (LoxCallable<Object>)callee;
 
-        if (arguments.size() != function.arity()){
-            throw new RuntimeError(expr.paren, "Expected " + 
-                function.arity() + " arguments but got " + 
-                arguments.size() + ".");
-        }
+        checkArity(paren, function.arity(), argumentCount);
+        return function;
+    }
 
-        return function.call(this, arguments);
+    private void checkArity(Token paren, int arity, int argumentCount) throws RuntimeError {
+        if (argumentCount != arity) {
+            throw new RuntimeError(paren, "Expected " + 
+                arity + " arguments but got " + 
+                argumentCount + ".");
+        }
     }
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
+        LoxFunction function = new LoxFunction(stmt, environment, false, false);
+        define(stmt.slot, stmt.name, function);
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) throws Return {
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.isTailCall) tailCall = (Expr.Call)stmt.value;
         Object value = stmt.value != null ? evaluate(stmt.value) : null;
-        throw new Return(value);
+        // unless the call was left pending as a tail call.
+        if (completion != Completion.TAIL_CALL) {
+            returnValue = value;
+            completion = Completion.RETURN;
+        }
+        return null;
     }
 
     @Override
@@ -439,18 +944,17 @@ public class Interpreter implements Expr.Visitor<Object>,
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
-
         if (stmt.superclass != null) {
             environment = new Environment(environment);
             environment.define("super", superclass);
         }
 
-        Map<String, LoxFunction> instanceMethods = new HashMap<>();
-        Map<String, Object> statics = new HashMap<>();
+        // names are interned symbols, so the class's tables are keyed by identity.
+        Map<String, LoxFunction> instanceMethods = new IdentityHashMap<>();
+        Map<String, Object> statics = new IdentityHashMap<>();
         for (Stmt.Function method : stmt.methods) {
             Boolean isInitializer = method.name.lexeme.equals("init");
-            LoxFunction function = new LoxFunction(method, environment, isInitializer);
+            LoxFunction function = new LoxFunction(method, environment, true, isInitializer);
             // init() is treated specially and needs to stay with its instance methods.
             if (method.isStatic && !isInitializer) {
                 statics.put(method.name.lexeme, function);
@@ -465,17 +969,24 @@ public class Interpreter implements Expr.Visitor<Object>,
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
+        // methods only look the class name up once they are called, so it is safe to define it last.
+        // this keeps the class in the slot the Resolver gave it.
+        define(stmt.slot, stmt.name, klass);
         return null;
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(expr, evaluate(expr.object));
+    }
+
+    private Object getProperty(Expr.Get expr, Object object) {
         if (object instanceof MemberStore) {
-            Object retrieved = ((MemberStore)object).get(expr.name);
+            Object retrieved = object instanceof LoxInstance
+                    ? expr.cache.get((LoxInstance)object, expr.name)
+                    : ((MemberStore)object).get(expr.name);
             if (retrieved instanceof LoxFunction && ((LoxFunction)retrieved).isAutoInvoke) {
-                retrieved = ((LoxFunction)retrieved).call(this, new ArrayList<>());
+                retrieved = ((LoxFunction)retrieved).call0(this);
             }
             return retrieved;
         }
@@ -492,25 +1003,36 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
 
         Object value = evaluate(expr.value);
-        ((MemberStore)object).set(expr.name, value);
+        if (object instanceof LoxInstance) {
+            expr.cache.set((LoxInstance)object, expr.name, value);
+        } else {
+            ((MemberStore)object).set(expr.name, value);
+        }
         return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.slot);
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
+        return findSuperMethod(expr).bind(thisForSuper(expr));
+    }
+
+    private LoxFunction findSuperMethod(Expr.Super expr) {
+        // "super" is the only variable in its scope.
+        LoxClass superclass = (LoxClass)environment.getAt(expr.slot.depth, 0);
         LoxFunction method = superclass.findMethod(expr.method.lexeme);
         if (method == null) {
             throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
         }
-        return method.bind(object);
+        return method;
+    }
+
+    private LoxInstance thisForSuper(Expr.Super expr) {
+        return (LoxInstance)getLocal(expr.thisSlot);
     }
 
 }
@@ -0,0 +1,964 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.craftinginterpreters.lox.ClassFile.*;
+
+/**
+ * Compiles the bodies of hot LoxFunctions to JVM bytecode, loaded as hidden classes so HotSpot can optimize them.
+ *
+ * Only part of the language is compiled: parameters and locals, literals, operators, globals, calls, print
+ * and structured control flow.  Functions that declare functions or classes, use properties or this,
+ * or read variables of an enclosing function keep running in the Interpreter.
+ *
+ * Every value has a Kind.  Numbers and booleans whose kind is known at compile time stay unboxed;
+ * anything else is an Object and is handled by the same code the Interpreter runs (see JitRuntime).
+ * Parameter kinds are guessed from the arguments seen when the function got hot, and checked on every call.
+ */
+final class Jit implements Expr.Visitor<Jit.Kind>, Stmt.Visitor<Void> {
+
+    enum Kind {
+        NUMBER("D"),
+        BOOLEAN("Z"),
+        OBJECT("Ljava/lang/Object;");
+
+        final String descriptor;
+
+        Kind(String descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        Kind join(Kind other) {
+            return this == other ? this : OBJECT;
+        }
+
+        static Kind of(Object value) {
+            if (value instanceof Double) return NUMBER;
+            if (value instanceof Boolean) return BOOLEAN;
+            return OBJECT;
+        }
+    }
+
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+    private static final String RUNTIME = PACKAGE + "JitRuntime";
+    private static final String TOKEN = PACKAGE + "Token";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String INTERPRETER_TYPE = "L" + PACKAGE + "Interpreter;";
+    private static final String TOKEN_TYPE = "L" + TOKEN + ";";
+    private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+    private static final String BINARY_DESCRIPTOR = "(" + INTERPRETER_TYPE + OBJECT_TYPE + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE;
+
+    // locals past 255 and branches past 32k need instruction forms ClassFile doesn't emit.
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_CODE_LENGTH = Short.MAX_VALUE;
+
+    private static final class Local {
+        Kind kind;
+        int slot;
+
+        Local(Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    private static final class Loop {
+        final Label breakLabel = new Label();
+        final Label continueLabel = new Label();
+    }
+
+    /** Thrown when the body uses something the Jit can't compile. */
+    private static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final Token name;
+    private final List<Token> params;
+    private final List<Stmt> body;
+    private final FunctionProfile profile;
+    private final Local[] parameters;
+    /** Locals declared in the body.  Their kinds carry over from one pass to the next. */
+    private final Map<Stmt.Var, Local> declared = new IdentityHashMap<>();
+    private final KindOf kinds = new KindOf();
+
+    // state of the current pass.
+    private ClassFile classFile;
+    private ClassFile.Code code;
+    private String runDescriptor;
+    private List<Object> constants;
+    private Map<Object, Integer> constantIndices;
+    private final List<Map<String, Local>> scopes = new ArrayList<>();
+    private final List<Loop> loops = new ArrayList<>();
+    private int nextSlot;
+    /** start of the body in run(), where a recursive tail call jumps back to. */
+    private Label start;
+    private int calls;
+    private boolean widened;
+
+    private Jit(Interpreter interpreter, Token name, List<Token> params, List<Stmt> body,
+                FunctionProfile profile, Kind[] parameterKinds) {
+        this.interpreter = interpreter;
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.profile = profile;
+        this.parameters = new Local[parameterKinds.length];
+        for (int i = 0; i < parameterKinds.length; i++) {
+            parameters[i] = new Local(parameterKinds[i]);
+        }
+    }
+
+    /**
+     * Compiles a function for the argument types it has been called with so far.
+     * @returns the compiled function, or null if its body can't be compiled.
+     */
+    static CompiledFunction compile(Interpreter interpreter, Token name, List<Token> params, List<Stmt> body,
+                                    FunctionProfile profile, Object[] arguments) {
+        Kind[] parameterKinds = new Kind[params.size()];
+        for (int i = 0; i < parameterKinds.length; i++) {
+            Kind kind = Kind.of(arguments[i]);
+            parameterKinds[i] = profile.parameterKinds == null ? kind : profile.parameterKinds[i].join(kind);
+        }
+        profile.parameterKinds = parameterKinds;
+
+        try {
+            return new Jit(interpreter, name, params, body, profile, parameterKinds).compile();
+        } catch (Unsupported e) {
+            return null;
+        }
+    }
+
+    private CompiledFunction compile() {
+        // an assignment can widen a local after code using its old kind was emitted, so repeat until kinds settle.
+        do {
+            widened = false;
+            classFile = new ClassFile(PACKAGE + "Jit$" + name.lexeme, OBJECT, PACKAGE + "CompiledFunction");
+            constants = new ArrayList<>();
+            constantIndices = new IdentityHashMap<>();
+            emitRun();
+        } while (widened);
+
+        classFile.field(ACC_STATIC, "constants", "[" + OBJECT_TYPE);
+        emitConstructor();
+        emitBridge();
+        return define(classFile.toByteArray(), constants.toArray());
+    }
+
+    private CompiledFunction define(byte[] bytes, Object[] values) {
+        MethodHandles.Lookup lookup;
+        try {
+            lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        } catch (LinkageError | IllegalAccessException e) {
+            // code the verifier rejects is a bug here, not in the script, which can still be interpreted.
+            throw new Unsupported();
+        }
+
+        try {
+            lookup.findStaticVarHandle(lookup.lookupClass(), "constants", Object[].class).set(values);
+            return (CompiledFunction)lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Could not load compiled code for '" + name.lexeme + "'.", e);
+        }
+    }
+
+    /** Emits the static run(Interpreter, parameters...) method holding the function body. */
+    private void emitRun() {
+        StringBuilder descriptor = new StringBuilder("(").append(INTERPRETER_TYPE);
+        for (Local parameter : parameters) descriptor.append(parameter.kind.descriptor);
+        runDescriptor = descriptor.append(")").append(OBJECT_TYPE).toString();
+
+        code = classFile.method(ACC_STATIC, "run", runDescriptor);
+        nextSlot = 1;
+        calls = 0;
+        beginScope();
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i].slot = allocate(parameters[i].kind);
+            scopes.get(0).put(params.get(i).lexeme, parameters[i]);
+        }
+        start = new Label();
+        code.mark(start);
+        for (Stmt statement : body) {
+            execute(statement);
+        }
+        endScope();
+
+        // falling off the end of the body returns nil.
+        code.op(ACONST_NULL);
+        code.op(ARETURN);
+
+        if (code.length() > MAX_CODE_LENGTH) throw new Unsupported();
+    }
+
+    private void emitConstructor() {
+        ClassFile.Code constructor = classFile.method(ACC_PUBLIC, "<init>", "()V");
+        constructor.local(ALOAD, 0);
+        constructor.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+        constructor.op(RETURN);
+    }
+
+    /**
+     * Emits call(Interpreter, Object[]), which checks the arguments against the parameter kinds,
+     * unboxes them and calls run().  Arguments of the wrong kind make it return CompiledFunction.FALLBACK.
+     */
+    private void emitBridge() {
+        ClassFile.Code bridge = classFile.method(ACC_PUBLIC, "call", "(" + INTERPRETER_TYPE + "[" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+        Label fallback = new Label();
+        for (int i = 0; i < parameters.length; i++) {
+            if (parameters[i].kind == Kind.OBJECT) continue;
+            argument(bridge, i);
+            bridge.type(INSTANCEOF, boxType(parameters[i].kind));
+            bridge.jump(IFEQ, fallback);
+        }
+
+        bridge.local(ALOAD, 1);
+        for (int i = 0; i < parameters.length; i++) {
+            argument(bridge, i);
+            Kind kind = parameters[i].kind;
+            if (kind == Kind.NUMBER) {
+                bridge.type(CHECKCAST, "java/lang/Double");
+                bridge.invoke(INVOKEVIRTUAL, "java/lang/Double", "doubleValue", "()D");
+            } else if (kind == Kind.BOOLEAN) {
+                bridge.type(CHECKCAST, "java/lang/Boolean");
+                bridge.invoke(INVOKEVIRTUAL, "java/lang/Boolean", "booleanValue", "()Z");
+            }
+        }
+        bridge.invoke(INVOKESTATIC, classFile.name(), "run", runDescriptor);
+        bridge.op(ARETURN);
+
+        bridge.mark(fallback);
+        bridge.getstatic(PACKAGE + "CompiledFunction", "FALLBACK", OBJECT_TYPE);
+        bridge.op(ARETURN);
+    }
+
+    private static void argument(ClassFile.Code bridge, int index) {
+        bridge.local(ALOAD, 2);
+        bridge.iconst(index);
+        bridge.op(AALOAD);
+    }
+
+    private static String boxType(Kind kind) {
+        return kind == Kind.NUMBER ? "java/lang/Double" : "java/lang/Boolean";
+    }
+
+    // locals and scopes.
+
+    private int allocate(Kind kind) {
+        int slot = nextSlot;
+        nextSlot += kind == Kind.NUMBER ? 2 : 1;
+        if (nextSlot > MAX_LOCALS) throw new Unsupported();
+        code.reserveLocals(nextSlot);
+        return slot;
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private void endScope() {
+        scopes.remove(scopes.size() - 1);
+    }
+
+    /**
+     * Finds the local a variable refers to.
+     * @returns null for globals.
+     * @throws Unsupported for variables of an enclosing function.
+     */
+    private Local lookup(Expr expr, Token variable) {
+        for (int i = scopes.size() - 1; i >= 0; i--) {
+            Local local = scopes.get(i).get(variable.lexeme);
+            if (local != null) return local;
+        }
+
+        // anything else the Resolver placed in a scope belongs to an enclosing function.
+        if (interpreter.isResolved(expr)) throw new Unsupported();
+        return null;
+    }
+
+    private void widen(Local local, Kind kind) {
+        Kind joined = local.kind.join(kind);
+        if (joined != local.kind) {
+            local.kind = joined;
+            widened = true;
+        }
+    }
+
+    private void load(Local local) {
+        switch (local.kind) {
+            case NUMBER:  code.local(DLOAD, local.slot); break;
+            case BOOLEAN: code.local(ILOAD, local.slot); break;
+            default:      code.local(ALOAD, local.slot); break;
+        }
+    }
+
+    private void store(Local local) {
+        switch (local.kind) {
+            case NUMBER:  code.local(DSTORE, local.slot); break;
+            case BOOLEAN: code.local(ISTORE, local.slot); break;
+            default:      code.local(ASTORE, local.slot); break;
+        }
+    }
+
+    // expressions.
+
+    private Kind kindOf(Expr expr) {
+        return expr.accept(kinds);
+    }
+
+    /** Emits code leaving the value of expr on the stack, and returns its kind. */
+    private Kind emit(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private void emit(Expr expr, Kind kind) {
+        coerce(emit(expr), kind);
+    }
+
+    /** Boxes the value on top of the stack if kind calls for an Object. */
+    private void coerce(Kind from, Kind to) {
+        if (from == to) return;
+        if (to != Kind.OBJECT) {
+            throw new IllegalStateException("Cannot convert a " + from + " to a " + to + ".");
+        }
+
+        if (from == Kind.NUMBER) {
+            code.invoke(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        } else {
+            code.invoke(INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+    }
+
+    private void pop(Kind kind) {
+        code.op(kind == Kind.NUMBER ? POP2 : POP);
+    }
+
+    /** Emits expr as a condition, leaving 1 on the stack if it is truthy and 0 if not. */
+    private void condition(Expr expr) {
+        Kind kind = emit(expr);
+        if (kind == Kind.NUMBER) {
+            code.op(POP2);
+            code.iconst(1);
+        } else if (kind == Kind.OBJECT) {
+            code.invoke(INVOKESTATIC, RUNTIME, "isTruthy", "(" + OBJECT_TYPE + ")Z");
+        }
+    }
+
+    /** Pushes a value from the class's constant array, cast to type. */
+    private void constant(Object value, String type) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndices.put(value, index);
+        }
+
+        code.getstatic(classFile.name(), "constants", "[" + OBJECT_TYPE);
+        code.iconst(index);
+        code.op(AALOAD);
+        if (!type.equals(OBJECT)) code.type(CHECKCAST, type);
+    }
+
+    /** Turns the result of a dcmp instruction into a boolean, 1 if branch would be taken. */
+    private void compare(int comparison, int branch) {
+        Label isTrue = new Label();
+        Label end = new Label();
+        code.op(comparison);
+        code.jump(branch, isTrue);
+        code.iconst(0);
+        code.jump(GOTO, end);
+        code.mark(isTrue);
+        code.iconst(1);
+        code.mark(end);
+    }
+
+    @Override
+    public Kind visitAssignExpr(Expr.Assign expr) {
+        Local local = lookup(expr, expr.name);
+        if (local == null) {
+            code.local(ALOAD, 0);
+            constant(expr, PACKAGE + "Expr$Assign");
+            emit(expr.value, Kind.OBJECT);
+            code.invoke(INVOKESTATIC, RUNTIME, "setGlobal",
+                "(" + INTERPRETER_TYPE + "L" + PACKAGE + "Expr$Assign;" + OBJECT_TYPE + ")" + OBJECT_TYPE);
+            return Kind.OBJECT;
+        }
+
+        widen(local, kindOf(expr.value));
+        emit(expr.value, local.kind);
+        code.op(local.kind == Kind.NUMBER ? DUP2 : DUP);
+        store(local);
+        return local.kind;
+    }
+
+    @Override
+    public Kind visitBinaryExpr(Expr.Binary expr) {
+        TokenType operator = expr.operator.type;
+        if (operator == TokenType.COMMA) {
+            pop(emit(expr.left));
+            return emit(expr.right);
+        }
+
+        Kind left = kindOf(expr.left);
+        Kind right = kindOf(expr.right);
+
+        if (operator == TokenType.EQUAL_EQUAL || operator == TokenType.BANG_EQUAL) {
+            if (left == right && left == Kind.NUMBER) {
+                emit(expr.left);
+                emit(expr.right);
+                code.invoke(INVOKESTATIC, RUNTIME, "numberEquals", "(DD)Z");
+            } else if (left == right && left == Kind.BOOLEAN) {
+                emit(expr.left);
+                emit(expr.right);
+                // a ^ b is 0 exactly when they are equal.
+                code.op(IXOR);
+                code.iconst(1);
+                code.op(IXOR);
+            } else {
+                emit(expr.left, Kind.OBJECT);
+                emit(expr.right, Kind.OBJECT);
+                code.invoke(INVOKESTATIC, RUNTIME, "isEqual", "(" + OBJECT_TYPE + OBJECT_TYPE + ")Z");
+            }
+            if (operator == TokenType.BANG_EQUAL) {
+                code.iconst(1);
+                code.op(IXOR);
+            }
+            return Kind.BOOLEAN;
+        }
+
+        if (left == Kind.NUMBER && right == Kind.NUMBER) {
+            emit(expr.left);
+            emit(expr.right);
+            switch (operator) {
+                case PLUS:  code.op(DADD); return Kind.NUMBER;
+                case MINUS: code.op(DSUB); return Kind.NUMBER;
+                case STAR:  code.op(DMUL); return Kind.NUMBER;
+                case SLASH:
+                    constant(expr.operator, TOKEN);
+                    code.invoke(INVOKESTATIC, RUNTIME, "divide", "(DD" + TOKEN_TYPE + ")D");
+                    return Kind.NUMBER;
+                // dcmpg and dcmpl push 1 and -1 for NaN, so every ordered comparison of NaN is false.
+                case GREATER:       compare(DCMPL, IFGT); return Kind.BOOLEAN;
+                case GREATER_EQUAL: compare(DCMPL, IFGE); return Kind.BOOLEAN;
+                case LESS:          compare(DCMPG, IFLT); return Kind.BOOLEAN;
+                case LESS_EQUAL:    compare(DCMPG, IFLE); return Kind.BOOLEAN;
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        code.local(ALOAD, 0);
+        emit(expr.left, Kind.OBJECT);
+        emit(expr.right, Kind.OBJECT);
+        constant(expr.operator, TOKEN);
+        String helper;
+        switch (operator) {
+            case PLUS:  helper = "add"; break;
+            case MINUS: helper = "subtract"; break;
+            case STAR:  helper = "multiply"; break;
+            default:    helper = "binary"; break;
+        }
+        code.invoke(INVOKESTATIC, RUNTIME, helper, BINARY_DESCRIPTOR);
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitCallExpr(Expr.Call expr) {
+        return emitCall(expr, false);
+    }
+
+    private Kind emitCall(Expr.Call expr, boolean isTailCall) {
+        // remember that this code calls out, in case it sits in a loop.  See visitWhileStmt().
+        calls++;
+
+        emit(expr.callee, Kind.OBJECT);
+
+        Label end = new Label();
+        if (mayCallItself(expr)) {
+            // a recursive call skips the argument checks and boxing of call() and goes straight to run().
+            Label generic = new Label();
+            code.op(DUP);
+            constant(profile, PACKAGE + "FunctionProfile");
+            code.invoke(INVOKESTATIC, RUNTIME, "isCallTo", "(" + OBJECT_TYPE + "L" + PACKAGE + "FunctionProfile;)Z");
+            code.jump(IFEQ, generic);
+            code.op(POP);
+            if (isTailCall) {
+                // in tail position the call becomes a loop: reassign the parameters and start the body over.
+                for (int i = 0; i < parameters.length; i++) {
+                    emit(expr.arguments.get(i), parameters[i].kind);
+                }
+                for (int i = parameters.length - 1; i >= 0; i--) {
+                    store(parameters[i]);
+                }
+                code.jump(GOTO, start);
+            } else {
+                code.local(ALOAD, 0);
+                for (int i = 0; i < parameters.length; i++) {
+                    emit(expr.arguments.get(i), parameters[i].kind);
+                }
+                code.invoke(INVOKESTATIC, classFile.name(), "run", runDescriptor);
+                code.local(ALOAD, 0);
+                code.invoke(INVOKESTATIC, RUNTIME, "completeTailCalls", "(" + OBJECT_TYPE + INTERPRETER_TYPE + ")" + OBJECT_TYPE);
+                code.jump(GOTO, end);
+            }
+            code.mark(generic);
+        }
+
+        code.iconst(expr.arguments.size());
+        code.type(ANEWARRAY, OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.op(DUP);
+            code.iconst(i);
+            emit(expr.arguments.get(i), Kind.OBJECT);
+            code.op(AASTORE);
+        }
+        constant(expr.paren, TOKEN);
+        code.local(ALOAD, 0);
+        code.invoke(INVOKESTATIC, RUNTIME, isTailCall ? "tailCall" : "call",
+            "(" + OBJECT_TYPE + "[" + OBJECT_TYPE + TOKEN_TYPE + INTERPRETER_TYPE + ")" + OBJECT_TYPE);
+        code.mark(end);
+        return Kind.OBJECT;
+    }
+
+    /** Whether a call looks like it is recursive, with arguments that fit this function's parameters as they are. */
+    private boolean mayCallItself(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Variable)) return false;
+        if (!((Expr.Variable)expr.callee).name.lexeme.equals(name.lexeme)) return false;
+        if (expr.arguments.size() != parameters.length) return false;
+
+        for (int i = 0; i < parameters.length; i++) {
+            Kind kind = kindOf(expr.arguments.get(i));
+            if (kind != parameters[i].kind && parameters[i].kind != Kind.OBJECT) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Kind visitFunExpr(Expr.Fun expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Kind visitGetExpr(Expr.Get expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Kind visitSetExpr(Expr.Set expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Kind visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Kind visitThisExpr(Expr.This expr) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Kind visitGroupingExpr(Expr.Grouping expr) {
+        return emit(expr.expression);
+    }
+
+    @Override
+    public Kind visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        if (value instanceof Double) {
+            code.dconst((double)value);
+            return Kind.NUMBER;
+        }
+        if (value instanceof Boolean) {
+            code.iconst((boolean)value ? 1 : 0);
+            return Kind.BOOLEAN;
+        }
+        if (value == null) {
+            code.op(ACONST_NULL);
+        } else {
+            constant(value, OBJECT);
+        }
+        return Kind.OBJECT;
+    }
+
+    @Override
+    public Kind visitLogicalExpr(Expr.Logical expr) {
+        Kind kind = kindOf(expr);
+        if (kind == Kind.NUMBER) {
+            // numbers are always truthy, so "or" is its left operand and "and" its right one.
+            emit(expr.left);
+            if (expr.operator.type == TokenType.OR) return kind;
+            pop(kind);
+            emit(expr.right);
+            return kind;
+        }
+        Label end = new Label();
+
+        // the left operand is the result if it decides the outcome.
+        emit(expr.left, kind);
+        code.op(DUP);
+        if (kind == Kind.OBJECT) {
+            code.invoke(INVOKESTATIC, RUNTIME, "isTruthy", "(" + OBJECT_TYPE + ")Z");
+        }
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+        code.op(POP);
+        emit(expr.right, kind);
+        code.mark(end);
+        return kind;
+    }
+
+    @Override
+    public Kind visitUnaryExpr(Expr.Unary expr) {
+        switch (expr.operator.type) {
+            case MINUS:
+                if (kindOf(expr.right) == Kind.NUMBER) {
+                    emit(expr.right);
+                    code.op(DNEG);
+                    return Kind.NUMBER;
+                }
+                emit(expr.right, Kind.OBJECT);
+                constant(expr.operator, TOKEN);
+                code.invoke(INVOKESTATIC, RUNTIME, "negate", "(" + OBJECT_TYPE + TOKEN_TYPE + ")" + OBJECT_TYPE);
+                return Kind.OBJECT;
+            case BANG:
+                condition(expr.right);
+                code.iconst(1);
+                code.op(IXOR);
+                return Kind.BOOLEAN;
+            default:
+                throw new Unsupported();
+        }
+    }
+
+    @Override
+    public Kind visitTernaryExpr(Expr.Ternary expr) {
+        Kind kind = kindOf(expr);
+        Label otherwise = new Label();
+        Label end = new Label();
+
+        condition(expr.left);
+        code.jump(IFEQ, otherwise);
+        emit(expr.center, kind);
+        code.jump(GOTO, end);
+        code.mark(otherwise);
+        emit(expr.right, kind);
+        code.mark(end);
+        return kind;
+    }
+
+    @Override
+    public Kind visitVariableExpr(Expr.Variable expr) {
+        Local local = lookup(expr, expr.name);
+        if (local == null) {
+            code.local(ALOAD, 0);
+            constant(expr, PACKAGE + "Expr$Variable");
+            code.invoke(INVOKESTATIC, RUNTIME, "getGlobal",
+                "(" + INTERPRETER_TYPE + "L" + PACKAGE + "Expr$Variable;)" + OBJECT_TYPE);
+            return Kind.OBJECT;
+        }
+
+        load(local);
+        return local.kind;
+    }
+
+    @Override
+    public Kind visitIncrementExpr(Expr.Increment expr) {
+        Local local = lookup(expr.identifier, expr.identifier.name);
+        if (local == null) {
+            code.local(ALOAD, 0);
+            constant(expr, PACKAGE + "Expr$Increment");
+            code.invoke(INVOKESTATIC, RUNTIME, "increment",
+                "(" + INTERPRETER_TYPE + "L" + PACKAGE + "Expr$Increment;)" + OBJECT_TYPE);
+            return Kind.OBJECT;
+        }
+
+        // the variable ends up holding a number.
+        widen(local, Kind.NUMBER);
+
+        load(local);
+        constant(expr.identifier.name, TOKEN);
+        code.invoke(INVOKESTATIC, RUNTIME, "checkInteger", "(" + local.kind.descriptor + TOKEN_TYPE + ")D");
+
+        boolean isPost = expr.type == IncrementType.POST_INCREMENT || expr.type == IncrementType.POST_DECREMENT;
+        boolean isIncrement = expr.type == IncrementType.POST_INCREMENT || expr.type == IncrementType.PRE_INCREMENT;
+        if (isPost) code.op(DUP2);
+        code.dconst(1.0);
+        code.op(isIncrement ? DADD : DSUB);
+        if (!isPost) code.op(DUP2);
+        coerce(Kind.NUMBER, local.kind);
+        store(local);
+        return Kind.NUMBER;
+    }
+
+    // statements.
+
+    private void execute(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            execute(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        pop(emit(stmt.expression));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitIfElseStmt(Stmt.IfElse stmt) {
+        Label end = new Label();
+        for (Stmt.If branch : stmt.ifBranches) {
+            Label next = new Label();
+            condition(branch.condition);
+            code.jump(IFEQ, next);
+            execute(branch.body);
+            code.jump(GOTO, end);
+            code.mark(next);
+        }
+
+        if (stmt.elseBranch != null) execute(stmt.elseBranch);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        // if statements are only ever reached through their IfElse.
+        throw new Unsupported();
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit(stmt.expression, Kind.OBJECT);
+        code.invoke(INVOKESTATIC, RUNTIME, "print", "(" + OBJECT_TYPE + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            code.op(ACONST_NULL);
+        } else if (stmt.isTailCall) {
+            emitCall((Expr.Call)stmt.value, true);
+        } else {
+            emit(stmt.value, Kind.OBJECT);
+        }
+        code.op(ARETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        // an uninitialized local holds a marker only the Interpreter knows about.
+        if (stmt.initializer == null) throw new Unsupported();
+
+        Kind kind = kindOf(stmt.initializer);
+        Local local = declared.get(stmt);
+        if (local == null) {
+            local = new Local(kind);
+            declared.put(stmt, local);
+        } else {
+            widen(local, kind);
+        }
+
+        emit(stmt.initializer, local.kind);
+        local.slot = allocate(local.kind);
+        store(local);
+        scopes.get(scopes.size() - 1).put(stmt.name.lexeme, local);
+        return null;
+    }
+
+    /**
+     * Loops are laid out as
+     *
+     *     if (!condition) goto end;
+     *   top:
+     *     body;
+     *     if (condition) goto top;
+     *   end:
+     *
+     * A break or continue in an interpreted function called from the loop is thrown as a LoopInterrupt
+     * for the nearest enclosing loop to catch.  Loops that make calls get a handler doing the same.
+     */
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Loop loop = new Loop();
+        Label top = new Label();
+        Label test = new Label();
+        int callsBefore = calls;
+
+        condition(stmt.condition);
+        code.jump(IFEQ, loop.breakLabel);
+        code.mark(top);
+        loops.add(loop);
+        execute(stmt.body);
+        loops.remove(loops.size() - 1);
+        code.mark(test);
+        condition(stmt.condition);
+        code.jump(IFNE, top);
+
+        if (calls == callsBefore) {
+            code.alias(loop.continueLabel, test);
+        } else {
+            // like the Interpreter, a continue caught here tests the condition outside the protected range.
+            Label protectedEnd = new Label();
+            Label handler = new Label();
+            code.mark(protectedEnd);
+            code.jump(GOTO, loop.breakLabel);
+            code.handler(top, protectedEnd, handler, PACKAGE + "LoopInterrupt");
+            code.mark(handler);
+            code.invoke(INVOKESTATIC, RUNTIME, "isContinue", "(L" + PACKAGE + "LoopInterrupt;)Z");
+            code.jump(IFEQ, loop.breakLabel);
+            code.mark(loop.continueLabel);
+            condition(stmt.condition);
+            code.jump(IFNE, top);
+        }
+
+        code.mark(loop.breakLabel);
+        return null;
+    }
+
+    @Override
+    public Void visitLoopKeywordStmt(Stmt.LoopKeyword stmt) {
+        // a break or continue outside of any loop here escapes into the caller's loop, which only the Interpreter does.
+        if (loops.isEmpty()) throw new Unsupported();
+
+        Loop loop = loops.get(loops.size() - 1);
+        code.jump(GOTO, stmt.token.type == TokenType.BREAK ? loop.breakLabel : loop.continueLabel);
+        return null;
+    }
+
+    /** Works out the kind of an expression without emitting anything. */
+    private class KindOf implements Expr.Visitor<Kind> {
+        @Override
+        public Kind visitAssignExpr(Expr.Assign expr) {
+            Local local = lookup(expr, expr.name);
+            return local == null ? Kind.OBJECT : local.kind.join(kindOf(expr.value));
+        }
+
+        @Override
+        public Kind visitBinaryExpr(Expr.Binary expr) {
+            switch (expr.operator.type) {
+                case COMMA:
+                    return kindOf(expr.right);
+                case EQUAL_EQUAL:
+                case BANG_EQUAL:
+                    return Kind.BOOLEAN;
+                default:
+                    break;
+            }
+
+            if (kindOf(expr.left) != Kind.NUMBER || kindOf(expr.right) != Kind.NUMBER) return Kind.OBJECT;
+            switch (expr.operator.type) {
+                case PLUS: case MINUS: case STAR: case SLASH:
+                    return Kind.NUMBER;
+                case GREATER: case GREATER_EQUAL: case LESS: case LESS_EQUAL:
+                    return Kind.BOOLEAN;
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        @Override
+        public Kind visitCallExpr(Expr.Call expr) {
+            return Kind.OBJECT;
+        }
+
+        @Override
+        public Kind visitFunExpr(Expr.Fun expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Kind visitGetExpr(Expr.Get expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Kind visitSetExpr(Expr.Set expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Kind visitSuperExpr(Expr.Super expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Kind visitThisExpr(Expr.This expr) {
+            throw new Unsupported();
+        }
+
+        @Override
+        public Kind visitGroupingExpr(Expr.Grouping expr) {
+            return kindOf(expr.expression);
+        }
+
+        @Override
+        public Kind visitLiteralExpr(Expr.Literal expr) {
+            return Kind.of(expr.value);
+        }
+
+        @Override
+        public Kind visitLogicalExpr(Expr.Logical expr) {
+            if (expr.operator.type != TokenType.AND && expr.operator.type != TokenType.OR) throw new Unsupported();
+            return kindOf(expr.left).join(kindOf(expr.right));
+        }
+
+        @Override
+        public Kind visitUnaryExpr(Expr.Unary expr) {
+            switch (expr.operator.type) {
+                case MINUS: return kindOf(expr.right) == Kind.NUMBER ? Kind.NUMBER : Kind.OBJECT;
+                case BANG:  return Kind.BOOLEAN;
+                default:
+                    throw new Unsupported();
+            }
+        }
+
+        @Override
+        public Kind visitTernaryExpr(Expr.Ternary expr) {
+            if (expr.leftOperator.type != TokenType.QUESTION_MARK || expr.rightOperator.type != TokenType.COLON) {
+                throw new Unsupported();
+            }
+            return kindOf(expr.center).join(kindOf(expr.right));
+        }
+
+        @Override
+        public Kind visitVariableExpr(Expr.Variable expr) {
+            Local local = lookup(expr, expr.name);
+            return local == null ? Kind.OBJECT : local.kind;
+        }
+
+        @Override
+        public Kind visitIncrementExpr(Expr.Increment expr) {
+            return lookup(expr.identifier, expr.identifier.name) == null ? Kind.OBJECT : Kind.NUMBER;
+        }
+    }
+}
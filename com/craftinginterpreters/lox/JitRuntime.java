@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+
+/**
+ * Helpers called from code compiled by the Jit.
+ * Each one covers a case the compiled code can't handle inline and defers to the Interpreter's own logic,
+ * so compiled and interpreted functions report the same results and the same errors.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    static Object getGlobal(Interpreter interpreter, Expr.Variable expr) {
+        if (expr.global == null) expr.global = interpreter.globals.cell(expr.name);
+        return expr.global.get(expr.name);
+    }
+
+    static Object setGlobal(Interpreter interpreter, Expr.Assign expr, Object value) {
+        if (expr.global == null) expr.global = interpreter.globals.cell(expr.name);
+        expr.global.set(value);
+        return value;
+    }
+
+    static Object increment(Interpreter interpreter, Expr.Increment expr) {
+        return interpreter.visitIncrementExpr(expr);
+    }
+
+    static double checkInteger(double value, Token name) {
+        if (!Util.isInteger(value)) {
+            throw new RuntimeError(name, "Cannot apply increment operation to non-integer value.");
+        }
+        return value;
+    }
+
+    static double checkInteger(Object value, Token name) {
+        if (!(value instanceof Double)) {
+            throw new RuntimeError(name, "Cannot apply increment operation to non-integer value.");
+        }
+        return checkInteger((double)value, name);
+    }
+
+    static boolean isTruthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static boolean numberEquals(double left, double right) {
+        // same semantics as Double.equals(), which isEqual() uses for boxed numbers.
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    static double divide(double left, double right, Token operator) {
+        if (right == 0) {
+            throw new RuntimeError(operator, "Cannot divide by 0.");
+        }
+        return left / right;
+    }
+
+    static Object negate(Object value, Token operator) {
+        Interpreter.checkNumberOperand(operator, value);
+        return -(double)value;
+    }
+
+    // operators on values whose types were unknown at compile time.  Numbers are checked for first.
+
+    static Object add(Interpreter interpreter, Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object subtract(Interpreter interpreter, Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) return (double)left - (double)right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object multiply(Interpreter interpreter, Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) return (double)left * (double)right;
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object binary(Interpreter interpreter, Object left, Object right, Token operator) {
+        return Interpreter.binary(operator, left, right);
+    }
+
+    static Object call(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        return interpreter.call(callee, arguments, paren);
+    }
+
+    /** Calls a callee in tail position: a Lox function is left pending for the caller, anything else is called. */
+    static Object tailCall(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        if (!(callee instanceof LoxFunction)) return interpreter.call(callee, arguments, paren);
+        LoxFunction function = (LoxFunction)callee;
+        interpreter.prepareTailCall(function, function.receiver, arguments, paren);
+        return CompiledFunction.TAIL_CALL;
+    }
+
+    /** Finishes what a recursive call to run() returned, which may be a pending tail call. */
+    static Object completeTailCalls(Object value, Interpreter interpreter) {
+        if (value != CompiledFunction.TAIL_CALL) return value;
+        return LoxFunction.completeTailCalls(interpreter, null);
+    }
+
+    static boolean isCallTo(Object callee, FunctionProfile profile) {
+        return callee instanceof LoxFunction && ((LoxFunction)callee).profile == profile;
+    }
+
+    static void print(Object value) {
+        System.out.println(Util.stringify(value));
+    }
+
+    /**
+     * Handles a break or continue thrown out of an interpreted function called inside a compiled loop.
+     * @returns true for continue, false for break.
+     */
+    static boolean isContinue(LoopInterrupt interrupt) {
+        if (interrupt.token.type == TokenType.CONTINUE) return true;
+        if (interrupt.token.type == TokenType.BREAK) return false;
+        throw new RuntimeError(interrupt.token, "Unimplmented loop interrupt.");
+    }
+}
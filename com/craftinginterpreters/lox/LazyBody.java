@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * The source of a function body that hasn't been parsed yet.
+ * With --lazy, the Parser only matches the braces of the bodies of top-level functions and methods, and keeps
+ * their text here.  A body is parsed, optimized and resolved the first time its function is called, straight into
+ * the list its declaration holds, so functions a run never calls never get AST nodes.
+ * Such a function can only see globals and, in a subclass, "super", so its body resolves the same on its own.
+ */
+final class LazyBody {
+    // from the "{" to the "}", which starts on line.
+    private final String source;
+    private final int line;
+    private final boolean isMethod;
+    private final boolean isSubclass;
+    private boolean isParsed = false;
+    private boolean hasErrors = false;
+
+    LazyBody(String source, int line, boolean isMethod, boolean isSubclass) {
+        this.source = source;
+        this.line = line;
+        this.isMethod = isMethod;
+        this.isSubclass = isSubclass;
+    }
+
+    /**
+     * Parses the body into body, unless that was done already.
+     * @throws RuntimeError if the body has errors, which are reported as they would have been before the run.
+     */
+    void parse(Interpreter interpreter, Token name, List<Token> params, List<Stmt> body, FrameLayout layout) {
+        if (isParsed) {
+            if (hasErrors) throw new RuntimeError(name, "Can't call '" + name.lexeme + "', its body has errors.");
+            return;
+        }
+        isParsed = true;
+
+        List<Stmt> statements = new Parser(new Scanner(source, line, interpreter.symbols)).functionBody();
+        if (!Lox.hadError) {
+            // checked as written and laid out as optimized, as Lox.compile() does.
+            new Resolver(interpreter).resolveLazily(name, params, statements, layout, isMethod, isSubclass);
+            if (!Lox.hadError && Lox.isOptimizing()) {
+                List<Stmt> optimized = new Optimizer().optimize(statements);
+                if (!optimized.equals(statements)) {
+                    new Resolver(interpreter, false).resolveLazily(name, params, optimized, layout, isMethod, isSubclass);
+                }
+                statements = optimized;
+            }
+        }
+
+        hasErrors = Lox.hadError;
+        if (hasErrors) throw new RuntimeError(name, "Can't call '" + name.lexeme + "', its body has errors.");
+        body.addAll(statements);
+    }
+}
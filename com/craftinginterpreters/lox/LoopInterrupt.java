@@ -1,9 +1,19 @@
 package com.craftinginterpreters.lox;
 
+/**
+ * A break or continue that escaped the function it was written in.
+ * Loops inside one function are driven by Interpreter's completion state; only this rare case unwinds with an exception.
+ */
 public class LoopInterrupt extends RuntimeError { 
     // TODO: should this extend RuntimeException instead?  it's not an error...
 
     LoopInterrupt(Token token, String message) {
         super(token, message);
     }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        // used for control flow, so the stack trace would never be looked at.
+        return this;
+    }
 }
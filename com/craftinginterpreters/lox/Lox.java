@@ -3,16 +3,30 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 
+import com.craftinginterpreters.lox.vm.VM;
+
 // TODO: add color to warnings and errors when running a script, and make their formats match.
 public class Lox {
     private static final Interpreter interpreter = new Interpreter();
+    private static VM vm = null;
 
     private static boolean _isInteractive = false;
+    private static boolean optimize = true;
+    private static boolean reportOptimizations = false;
+    private static boolean lazy = false;
+    private static boolean stream = false;
+    private static ProgramCache cache = null;
+    // while a program that may be cached is compiled, the warnings reported, so cached runs can report them too.
+    private static StringBuilder warnings = null;
 
     /**
      * Returns true if Lox is being executed in an interactive environment like a REPL, false otherwise.
@@ -21,29 +35,116 @@ public class Lox {
         return _isInteractive;
     }
 
+    static boolean isOptimizing() {
+        return optimize;
+    }
+
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
+        String script = null;
+        for (String arg : args) {
+            if (arg.equals("--vm")) {
+                // compile to bytecode and run it on the VM instead of walking the AST.
+                vm = new VM();
+            } else if (arg.equals("--no-specialize")) {
+                // run every node through the generic path, e.g. to compare against specialized execution.
+                interpreter.specializeNodes = false;
+            } else if (arg.equals("--no-jit")) {
+                interpreter.jitThreshold = -1;
+            } else if (arg.startsWith("--jit-threshold=")) {
+                // compile functions to JVM bytecode once they have been called this many times.
+                try {
+                    interpreter.jitThreshold = Integer.parseInt(arg.substring("--jit-threshold=".length()));
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            } else if (arg.equals("--no-optimize")) {
+                optimize = false;
+            } else if (arg.equals("--report-optimizations")) {
+                // print how many AST nodes the Optimizer removed.
+                reportOptimizations = true;
+            } else if (arg.equals("--lazy")) {
+                // leave the bodies of top-level functions unparsed until they are first called.
+                lazy = true;
+            } else if (arg.equals("--stream")) {
+                // run each top-level declaration as soon as it has been parsed.
+                stream = true;
+            } else if (arg.startsWith("--cache=")) {
+                // keep resolved programs in this directory, and reuse them while their scripts are unchanged.
+                cache = new ProgramCache(Paths.get(arg.substring("--cache=".length())));
+            } else if (arg.startsWith("--") || script != null) {
+                usage();
+            } else {
+                script = arg;
+            }
+        }
 
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64); // exit codes from UNIX sysexits.h
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        if (script != null) {
+            runFile(script);
         } else {
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--vm] [--no-specialize] [--no-jit] [--jit-threshold=<calls>] [--no-optimize] [--report-optimizations] [--lazy] [--stream] [--cache=<dir>] [script]");
+        System.exit(64); // exit codes from UNIX sysexits.h
+    }
+
     // runs a Lox file from disk to halting.
     public static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        // a cached program is already resolved as a whole, so neither holds back any of it.
+        if (cache != null && !lazy && !stream && !reportOptimizations) {
+            runCached(Paths.get(path));
+            return;
+        }
+
+        // the Scanner reads the file as it goes rather than all of it up front.
+        try (Reader source = new InputStreamReader(Files.newInputStream(Paths.get(path)), Charset.defaultCharset())) {
+            // separate results from whatever command invoked Lox, for result readability.
+            System.out.print("\n");
+
+            run(new Scanner(source, interpreter.symbols));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        System.out.print("\n");
+
+        if (hadError) System.exit(65);
+        if (hadRuntimeError) System.exit(70);
+    }
+
+    // runs a Lox file from the program cache, compiling and storing it there first if it isn't in it yet.
+    private static void runCached(Path path) throws IOException {
+        byte[] source = Files.readAllBytes(path);
+        String key = cache.key(source, optimize);
+        ProgramCache.Program program = cache.load(key);
 
-        // separate results from whatever command invoked Lox, for result readability.
         System.out.print("\n");
 
-        run(new String(bytes, Charset.defaultCharset()));
+        if (program != null) {
+            System.err.print(program.warnings);
+            interpreter.reserveFrame(program.frameSize);
+            execute(program.statements);
+        } else {
+            warnings = new StringBuilder();
+            List<Stmt> statements = compile(new Parser(new Scanner(new String(source, Charset.defaultCharset()), interpreter.symbols), false));
+            String reported = warnings.toString();
+            warnings = null;
+
+            if (statements != null) {
+                try {
+                    cache.store(key, statements, interpreter.frameSize(), reported);
+                } catch (IOException e) {
+                    // the run doesn't need the cache.
+                    System.err.println("Couldn't cache " + path + ": " + e);
+                }
+                execute(statements);
+            }
+        }
 
         System.out.print("\n");
 
@@ -61,31 +162,117 @@ public class Lox {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
+            run(new Scanner(line, interpreter.symbols));
             hadError = false;
         }
     }
 
-    // runs a string of Lox code.
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    // runs the Lox code a scanner reads.
+    private static void run(Scanner scanner) {
+        // the VM compiles every function up front, and the REPL has nothing worth deferring.
+        Parser parser = new Parser(scanner, lazy && vm == null && !isInteractive());
+        if (stream && vm == null && !isInteractive()) {
+            runStreaming(parser);
+            return;
+        }
+
+        List<Stmt> statements = compile(parser);
+        if (statements != null) execute(statements);
+    }
 
-        Parser parser = new Parser(tokens);
+    // parses, optimizes and resolves a program, returning null if it has errors.
+    private static List<Stmt> compile(Parser parser) {
         List<Stmt> statements = parser.parse();
 
         // stop on errors.
-        if (hadError) return;
+        if (hadError) return null;
 
+        // the program is checked as written, so code the Optimizer removes is still checked and still counts as
+        // using the variables it names.
         Resolver resolver = new Resolver(interpreter);
         resolver.resolve(statements);
 
         // Stop on resolution errors.
-        if (hadError) return;
+        if (hadError) return null;
+
+        // the REPL echoes the value of what was typed, so it runs it as written.
+        if (optimize && !isInteractive()) {
+            int size = reportOptimizations ? Optimizer.size(statements) : 0;
+            statements = optimizeResolved(statements, new Resolver(interpreter, false));
+            if (reportOptimizations) {
+                int eliminated = size - Optimizer.size(statements);
+                System.err.println("Optimizer eliminated " + eliminated + " of " + size + " AST nodes.");
+            }
+        }
+        return statements;
+    }
+
+    /**
+     * Optimizes a program that has been resolved, and lays out what the Optimizer made of it with the given
+     * Resolver, which doesn't report.  Nodes the Optimizer replaced are new and unresolved; if it replaced none,
+     * the program is returned as it is.
+     */
+    static List<Stmt> optimizeResolved(List<Stmt> statements, Resolver layout) {
+        List<Stmt> optimized = new Optimizer().optimize(statements);
+        // the lists hold AST nodes, which compare by identity.
+        if (!optimized.equals(statements)) layout.resolve(optimized);
+        return optimized;
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (vm != null) {
+            try {
+                vm.interpret(statements, isInteractive());
+            } catch (RuntimeError error) {
+                runtimeError(error);
+            }
+            return;
+        }
 
         interpreter.interpret(statements);
     }
 
+    /**
+     * Parses, optimizes, resolves and runs one top-level declaration at a time.  Output starts as soon as the first
+     * one has been read, and only the declaration running is held in memory, along with what it defines.
+     * Once one has an error nothing more runs, but the rest is still parsed, and resolved up to the first syntax
+     * error, to report their errors.
+     */
+    private static void runStreaming(Parser parser) {
+        Resolver resolver = new Resolver(interpreter);
+        Resolver layout = new Resolver(interpreter, false);
+        boolean hadSyntaxError = false;
+        int size = 0;
+        int eliminated = 0;
+
+        while (parser.hasNext()) {
+            boolean hadErrorBefore = hadError;
+            Stmt statement = parser.next();
+            if (statement == null || (hadError && !hadErrorBefore)) hadSyntaxError = true;
+            if (hadSyntaxError) continue;
+
+            List<Stmt> statements = Collections.singletonList(statement);
+            resolver.resolve(statements);
+            if (hadError) continue;
+
+            if (optimize) {
+                int before = reportOptimizations ? Optimizer.size(statements) : 0;
+                statements = optimizeResolved(statements, layout);
+                if (reportOptimizations) {
+                    size += before;
+                    eliminated += before - Optimizer.size(statements);
+                }
+            }
+
+            interpreter.interpret(statements);
+            if (hadRuntimeError) return;
+        }
+
+        if (optimize && reportOptimizations) {
+            System.err.println("Optimizer eliminated " + eliminated + " of " + size + " AST nodes.");
+        }
+    }
+
     static void warning(Token token, String message) {
         report(token.line, "Warning", " at '" + token.lexeme + "'", message);
     }
@@ -96,7 +283,7 @@ public class Lox {
         hadError = true;
     }
 
-    static void error(Token token, String message) {
+    public static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
             report(token.line, "Error", " at end", message);
         } else {
@@ -107,7 +294,7 @@ public class Lox {
 
     static void runtimeError(RuntimeError error) {
         String message = error.getMessage();
-        if (!_isInteractive) message += "\n[line " + error.token.line + "]";
+        if (!_isInteractive) message += "\n[line " + error.line + "]";
         System.err.println(message);
         // System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
@@ -115,6 +302,8 @@ public class Lox {
 
     // report error to user.
     private static void report(int lineNumber, String type, String where, String message) {
-        System.err.println("[line " + lineNumber + "] " + type + where + ": " + message);
+        String line = "[line " + lineNumber + "] " + type + where + ": " + message;
+        System.err.println(line);
+        if (warnings != null) warnings.append(line).append('\n');
     }
 }
\ No newline at end of file
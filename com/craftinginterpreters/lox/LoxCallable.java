@@ -1,8 +1,30 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
+/**
+ * Something Lox code can call.
+ * Callers check arity() first, then use the callN() entry point for that many arguments, or call() for more than three.
+ * The fixed-arity forms exist so short calls need no argument array; by default they just build one.
+ */
 public interface LoxCallable<R> {
+    Object[] NO_ARGUMENTS = {};
+
     int arity();
-    R call(Interpreter interpreter, List<Object> arguments);    
+
+    R call(Interpreter interpreter, Object[] arguments);
+
+    default R call0(Interpreter interpreter) {
+        return call(interpreter, NO_ARGUMENTS);
+    }
+
+    default R call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] { a });
+    }
+
+    default R call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] { a, b });
+    }
+
+    default R call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, new Object[] { a, b, c });
+    }
 }
@@ -1,17 +1,32 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable<Object>, MemberStore {
     final String name;
     final LoxClass superclass;
-    private final Map<String, LoxFunction> instanceMethods;
+    /**
+     * instance methods of this class and all its superclasses, flattened so lookups never walk the chain.
+     * Names are interned symbols (see Symbols), so this and statics are keyed by identity.
+     */
+    private final Map<String, LoxFunction> methods;
+    /** the init() method instances are constructed with, declared here or inherited; null if there is none. */
+    final LoxFunction initializer;
+    private final int arity;
     private final Map<String, Object> statics;
+    /** shape every new instance starts out with; see Shape. */
+    final Shape rootShape = new Shape();
+    /** number of field slots a new instance preallocates: the most fields any instance has needed so far. */
+    int instanceSize = 0;
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> instanceMethods, Map<String, Object> statics) {
         this.name = name;
-        this.instanceMethods = instanceMethods;
+        // copy the superclass's table down, then let this class's own methods override it.
+        this.methods = superclass == null ? new IdentityHashMap<>() : new IdentityHashMap<>(superclass.methods);
+        this.methods.putAll(instanceMethods);
+        this.initializer = methods.get("init");
+        this.arity = initializer == null ? 0 : initializer.arity();
         this.statics = statics;
         this.superclass = superclass;
     }
@@ -23,41 +38,54 @@ public class LoxClass implements LoxCallable<Object>, MemberStore {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
-        if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
-        }
+        if (initializer != null) initializer.call(interpreter, instance, arguments);
         return instance;
     }
 
-    LoxFunction findMethod(String name) {
-        if (instanceMethods.containsKey(name)) {
-            return instanceMethods.get(name);
-        }
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.call0(interpreter, instance);
+        return instance;
+    }
 
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
-        return null;
+    // callers have checked arity(), so a class called with arguments always has an initializer.
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.call1(interpreter, instance, a);
+        return instance;
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.call2(interpreter, instance, a, b);
+        return instance;
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.call3(interpreter, instance, a, b, c);
+        return instance;
+    }
+
+    LoxFunction findMethod(String name) {
+        return methods.get(name);
     }
 
     @Override
     public Object get(Token name) {
         if (statics.containsKey(name.lexeme)) {
-            Object member = statics.get(name.lexeme);
-            if (member instanceof LoxFunction) {
-                // bind function to class scope
-                member = ((LoxFunction)member).bind(this);
-            }
-            return member;
+            return statics.get(name.lexeme);
         } else {
             throw new RuntimeError(name, "Undefined static member " + name.lexeme);
         }
@@ -9,11 +9,19 @@ public class LoxFunction implements LoxCallable<Object> {
     private final List<Stmt> body;
     private final Token name;
     private final Environment closure;
+    private final FrameLayout layout;
+    /** the source of the body, until it has been parsed into body.  See LazyBody. */
+    private final LazyBody lazyBody;
+    final FunctionProfile profile;
+    /** true for methods, whose frame holds "this" in slot 0, ahead of the parameters. */
+    private final boolean isMethod;
+    /** value of "this" for a method bound to an instance or class. */
+    final Object receiver;
 
     public final Boolean isInitializer;
     public final Boolean isAutoInvoke;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isMethod, boolean isInitializer) {
         // this.declaration = declaration;
         this.params = declaration.params;
         this.body = declaration.body;
@@ -21,6 +29,11 @@ public class LoxFunction implements LoxCallable<Object> {
         this.closure = closure;
         this.isInitializer = isInitializer;
         this.isAutoInvoke = declaration.isAutoInvoke;
+        this.profile = declaration.profile;
+        this.layout = declaration.layout;
+        this.lazyBody = declaration.lazyBody;
+        this.isMethod = isMethod;
+        this.receiver = null;
     }
 
     LoxFunction(Expr.Fun expr, Environment closure) {
@@ -31,15 +44,25 @@ public class LoxFunction implements LoxCallable<Object> {
         this.isAutoInvoke = false;
         // in our grammar, initializers are never expressions.
         this.isInitializer = false;
+        this.profile = expr.profile;
+        this.layout = expr.layout;
+        this.lazyBody = expr.lazyBody;
+        this.isMethod = false;
+        this.receiver = null;
     }
 
-    LoxFunction(List<Token> params, List<Stmt> body, Token name, Environment closure, boolean isInitializer, boolean isAutoInvoke) {
-        this.params = params;
-        this.body = body;
-        this.name = name; 
-        this.closure = closure;
-        this.isAutoInvoke = isAutoInvoke;
-        this.isInitializer = isInitializer;
+    private LoxFunction(LoxFunction method, Object receiver) {
+        this.params = method.params;
+        this.body = method.body;
+        this.name = method.name;
+        this.closure = method.closure;
+        this.isAutoInvoke = method.isAutoInvoke;
+        this.isInitializer = method.isInitializer;
+        this.profile = method.profile;
+        this.layout = method.layout;
+        this.lazyBody = method.lazyBody;
+        this.isMethod = method.isMethod;
+        this.receiver = receiver;
     }
 
     @Override
@@ -48,20 +71,160 @@ public class LoxFunction implements LoxCallable<Object> {
     }
 
     @Override
-    public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < params.size(); i++) {
-            environment.define(params.get(i).lexeme, arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return call(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return call0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return call1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return call2(interpreter, receiver, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call3(interpreter, receiver, a, b, c);
+    }
+
+    /**
+     * Calls this function with the given value as "this".
+     * Method call sites use this and the callN() forms below directly so they don't have to bind the method first.
+     */
+    Object call(Interpreter interpreter, Object receiver, Object[] arguments) {
+        return completeTailCalls(interpreter, execute(interpreter, receiver, arguments));
+    }
+
+    Object call0(Interpreter interpreter, Object receiver) {
+        if (lazyBody != null) parse(interpreter);
+        if (!isInterpreted(interpreter)) return call(interpreter, receiver, NO_ARGUMENTS);
+        return completeTailCalls(interpreter, run(interpreter, frame(receiver), receiver));
+    }
+
+    Object call1(Interpreter interpreter, Object receiver, Object a) {
+        if (lazyBody != null) parse(interpreter);
+        if (!isInterpreted(interpreter)) return call(interpreter, receiver, new Object[] { a });
+        Object[] frame = frame(receiver);
+        frame[first()] = a;
+        return completeTailCalls(interpreter, run(interpreter, frame, receiver));
+    }
+
+    Object call2(Interpreter interpreter, Object receiver, Object a, Object b) {
+        if (lazyBody != null) parse(interpreter);
+        if (!isInterpreted(interpreter)) return call(interpreter, receiver, new Object[] { a, b });
+        Object[] frame = frame(receiver);
+        int first = first();
+        frame[first] = a;
+        frame[first + 1] = b;
+        return completeTailCalls(interpreter, run(interpreter, frame, receiver));
+    }
+
+    Object call3(Interpreter interpreter, Object receiver, Object a, Object b, Object c) {
+        if (lazyBody != null) parse(interpreter);
+        if (!isInterpreted(interpreter)) return call(interpreter, receiver, new Object[] { a, b, c });
+        Object[] frame = frame(receiver);
+        int first = first();
+        frame[first] = a;
+        frame[first + 1] = b;
+        frame[first + 2] = c;
+        return completeTailCalls(interpreter, run(interpreter, frame, receiver));
+    }
+
+    /**
+     * Makes the tail calls left pending in the interpreter, one after another in this loop rather than each from
+     * inside the body of the one before, so a chain of tail calls takes no more stack than its first call.
+     * @param value result of the call that just finished, returned if it didn't end in a tail call.
+     */
+    static Object completeTailCalls(Interpreter interpreter, Object value) {
+        while (interpreter.tailCallee != null) {
+            LoxFunction callee = interpreter.tailCallee;
+            Object receiver = interpreter.tailReceiver;
+            Object[] arguments = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+            value = callee.execute(interpreter, receiver, arguments);
+        }
+        return value;
+    }
+
+    /** Runs the body once, compiled or interpreted.  A tail call it ends in is left pending in the interpreter. */
+    private Object execute(Interpreter interpreter, Object receiver, Object[] arguments) {
+        if (lazyBody != null) parse(interpreter);
+        if (profile.compiled == null && !profile.uncompilable && interpreter.jitThreshold >= 0
+                && ++profile.calls > interpreter.jitThreshold) {
+            // initializers need their instance, which compiled code has no way to reach.
+            profile.compiled = isInitializer ? null : Jit.compile(interpreter, name, params, body, profile, arguments);
+            profile.uncompilable = profile.compiled == null;
+        }
+
+        if (profile.compiled != null) {
+            Object result = profile.compiled.call(interpreter, arguments);
+            if (result == CompiledFunction.TAIL_CALL) return null;
+            if (result != CompiledFunction.FALLBACK) return result;
+
+            // the code was compiled for other argument types.  Interpret until the function gets hot again,
+            // at which point it is recompiled for both the old and the new types.
+            profile.compiled = null;
+            profile.calls = 0;
+        }
+
+        Object[] frame = frame(receiver);
+        System.arraycopy(arguments, 0, frame, first(), arguments.length);
+        return run(interpreter, frame, receiver);
+    }
+
+    /**
+     * Counts a call that can be interpreted straight away.
+     * Returns false, without counting, when the call has to go through call(Object[]) because the function
+     * is compiled or is about to be.
+     */
+    private boolean isInterpreted(Interpreter interpreter) {
+        if (profile.compiled != null) return false;
+        if (!profile.uncompilable && interpreter.jitThreshold >= 0) {
+            if (profile.calls >= interpreter.jitThreshold) return false;
+            profile.calls++;
         }
+        return true;
+    }
 
-        try {
-            interpreter.executeBlock(body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+    private void parse(Interpreter interpreter) {
+        lazyBody.parse(interpreter, name, params, body, layout);
+    }
+
+    /** Frame slot of the first parameter, after "this" for methods. */
+    private int first() {
+        return isMethod ? 1 : 0;
+    }
+
+    private Object[] frame(Object receiver) {
+        // the Resolver sized the frame for what the declaration is, a method or not.
+        assert layout.size >= first() + params.size() : "frame of '" + name.lexeme + "' has no room for its arguments";
+        Object[] frame = new Object[layout.size];
+        if (isMethod) frame[0] = receiver;
+        return frame;
+    }
+
+    private Object run(Interpreter interpreter, Object[] frame, Object receiver) {
+        // only a function whose closures capture its parameters or locals needs an Environment of its own.
+        Environment environment = closure;
+        if (layout.captured != null) {
+            environment = new Environment(closure, layout.environmentSize);
+            for (int i = 0; i < layout.captured.length; i++) {
+                environment.defineAt(i, frame[layout.captured[i]]);
+            }
         }
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+        Object value = interpreter.executeBody(body, environment, frame);
+        if (isInitializer) return receiver;
+        return value;
     }
 
     @Override
@@ -70,14 +233,6 @@ public class LoxFunction implements LoxCallable<Object> {
     }
 
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(this.params, this.body, this.name, environment, this.isInitializer, this.isAutoInvoke);
-    }
-
-    LoxFunction bind(LoxClass klass) {
-        Environment environment = new Environment(closure);
-        return new LoxFunction(this.params, this.body, this.name, environment, this.isInitializer, this.isAutoInvoke);
+        return new LoxFunction(this, instance);
     }
-    
 }
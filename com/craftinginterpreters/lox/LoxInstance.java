@@ -1,19 +1,23 @@
 package com.craftinginterpreters.lox;
 
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class LoxInstance implements MemberStore {
-    private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    /** layout of fields; see Shape. */
+    Shape shape;
+    Object[] fields;
     
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.rootShape;
+        this.fields = new Object[klass.instanceSize];
     }
 
     public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot >= 0) {
+            return fields[slot];
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
@@ -23,7 +27,23 @@ public class LoxInstance implements MemberStore {
     }
 
     public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int slot = shape.slotOf(name.lexeme);
+        if (slot < 0) {
+            slot = shape.size();
+            transition(shape.withField(name.lexeme));
+        }
+        fields[slot] = value;
+    }
+
+    /** Moves this instance to a shape with one more field, growing the field array if needed. */
+    void transition(Shape next) {
+        int size = next.size();
+        if (size > fields.length) {
+            fields = Arrays.copyOf(fields, size);
+            // later instances of the class start out big enough for what this one needed.
+            if (size > klass.instanceSize) klass.instanceSize = size;
+        }
+        shape = next;
     }
 
     @Override
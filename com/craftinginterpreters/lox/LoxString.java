@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A long string built by concatenation, kept as a rope.
+ * Concatenating only links the two halves together; the characters are copied out once, the first time the whole
+ * string is needed, which is when it is printed, compared or used as a key.  That keeps building a string up piece
+ * by piece in a loop linear, where copying it on every concatenation would be quadratic.
+ * Short results aren't worth a node, so concat() gives a plain java.lang.String for those.
+ * Lox code can't tell the two apart: both are strings, and equal when their characters are.
+ */
+final class LoxString implements CharSequence {
+    /** Results shorter than this are flattened straight away. */
+    private static final int MIN_ROPE_LENGTH = 256;
+
+    // a String or LoxString each, until the rope is flattened.
+    private CharSequence left;
+    private CharSequence right;
+    private final int length;
+    private String flat = null;
+
+    private LoxString(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof LoxString;
+    }
+
+    /** Concatenates two strings, stringifying either operand that isn't one. */
+    static Object concat(Object left, Object right) {
+        CharSequence l = isString(left) ? (CharSequence)left : Util.stringify(left);
+        CharSequence r = isString(right) ? (CharSequence)right : Util.stringify(right);
+        if (l.length() == 0) return r;
+        if (r.length() == 0) return l;
+        if (l.length() + r.length() < MIN_ROPE_LENGTH) return l.toString() + r.toString();
+        return new LoxString(l, r);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flatten();
+        return flat;
+    }
+
+    /**
+     * Copies the leaves out left to right.  Ropes built in a loop are as deep as the loop ran, so this walks them
+     * with a stack of its own rather than by recursion.
+     */
+    private void flatten() {
+        StringBuilder builder = new StringBuilder(length);
+        Deque<CharSequence> pending = new ArrayDeque<>();
+        pending.push(this);
+        while (!pending.isEmpty()) {
+            CharSequence next = pending.pop();
+            if (next instanceof LoxString && ((LoxString)next).flat == null) {
+                LoxString rope = (LoxString)next;
+                pending.push(rope.right);
+                pending.push(rope.left);
+            } else {
+                builder.append(next.toString());
+            }
+        }
+        flat = builder.toString();
+        // the halves are no longer needed, and may hold on to a lot of memory.
+        left = null;
+        right = null;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof LoxString)) return false;
+        return length == ((LoxString)other).length && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -0,0 +1,379 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the parsed program before it is resolved: folds operators applied to literals, prunes
+ * if/else branches, ternaries and logical operators whose outcome is fixed by a literal, and drops statements
+ * that can never run, such as loops whose condition is a false literal and code after a return, break or continue.
+ * A node none of whose children changed is returned as it is.
+ * Folding goes through Interpreter.binary(), so it gives exactly the value the operator would give at runtime;
+ * an operation that would raise a runtime error is left in place for the interpreter to report.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result == null) continue;
+            optimized.add(result);
+            // nothing after a return, break or continue in the same list is reachable.
+            if (completesAbruptly(result)) break;
+        }
+        return optimized;
+    }
+
+    /** Returns the optimized statement, or null if it does nothing and can be dropped. */
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr == null ? null : expr.accept(this);
+    }
+
+    private List<Expr> optimizeExpressions(List<Expr> exprs) {
+        List<Expr> optimized = new ArrayList<>(exprs.size());
+        for (Expr expr : exprs) {
+            optimized.add(optimize(expr));
+        }
+        return optimized;
+    }
+
+    /** Optimizes a statement that has to stay, like the body of a loop. */
+    private Stmt optimizeBody(Stmt body) {
+        Stmt optimized = optimize(body);
+        return optimized != null ? optimized : new Stmt.Block(new ArrayList<>());
+    }
+
+    private static boolean completesAbruptly(Stmt stmt) {
+        if (stmt instanceof Stmt.Return || stmt instanceof Stmt.LoopKeyword) return true;
+        if (stmt instanceof Stmt.Block) {
+            List<Stmt> statements = ((Stmt.Block)stmt).statements;
+            return !statements.isEmpty() && completesAbruptly(statements.get(statements.size() - 1));
+        }
+        if (stmt instanceof Stmt.IfElse) {
+            Stmt.IfElse ifElse = (Stmt.IfElse)stmt;
+            if (ifElse.elseBranch == null || !completesAbruptly(ifElse.elseBranch)) return false;
+            for (Stmt.If branch : ifElse.ifBranches) {
+                if (!completesAbruptly(branch.body)) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object value(Expr literal) {
+        return ((Expr.Literal)literal).value;
+    }
+
+    // statements.
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if (statements.isEmpty()) return null;
+        // the lists hold AST nodes, which compare by identity.
+        return statements.equals(stmt.statements) ? stmt : new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        for (Stmt.Function method : stmt.methods) {
+            methods.add((Stmt.Function)optimize(method));
+        }
+        return methods.equals(stmt.methods) ? stmt : new Stmt.Class(stmt.name, stmt.superclass, methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // a literal on its own has no effect.
+        if (isLiteral(expression)) return null;
+        return expression == stmt.expression ? stmt : new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimize(stmt.body);
+        if (body.equals(stmt.body)) return stmt;
+        return new Stmt.Function(stmt.name, stmt.params, body, stmt.isStatic, stmt.isAutoInvoke);
+    }
+
+    @Override
+    public Stmt visitIfElseStmt(Stmt.IfElse stmt) {
+        List<Stmt.If> branches = new ArrayList<>();
+        Stmt elseBranch = null;
+        boolean isElseReachable = true;
+        boolean changed = false;
+        for (Stmt.If branch : stmt.ifBranches) {
+            Stmt.If optimized = (Stmt.If)optimize(branch);
+            changed |= optimized != branch;
+            if (!isLiteral(optimized.condition)) {
+                branches.add(optimized);
+                continue;
+            }
+
+            changed = true;
+            if (Interpreter.isTruthy(value(optimized.condition))) {
+                // this branch always runs if it is reached, so it takes the place of the else branch.
+                elseBranch = optimized.body;
+                isElseReachable = false;
+                break;
+            }
+        }
+
+        if (isElseReachable && stmt.elseBranch != null) {
+            elseBranch = optimize(stmt.elseBranch);
+            changed |= elseBranch != stmt.elseBranch;
+        }
+        if (branches.isEmpty()) return elseBranch;
+        if (!changed) return stmt;
+        return new Stmt.IfElse(branches, elseBranch);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        Stmt body = optimizeBody(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.If(condition, body);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        return expression == stmt.expression ? stmt : new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = optimize(stmt.value);
+        return value == stmt.value ? stmt : new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = optimize(stmt.initializer);
+        return initializer == stmt.initializer ? stmt : new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isLiteral(condition) && !Interpreter.isTruthy(value(condition))) return null;
+
+        Stmt body = optimizeBody(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Stmt visitLoopKeywordStmt(Stmt.LoopKeyword stmt) {
+        return stmt;
+    }
+
+    // expressions.
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        return value == expr.value ? expr : new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (expr.operator.type == TokenType.COMMA && isLiteral(left)) return right;
+        if (isLiteral(left) && isLiteral(right) && accepts(expr.operator.type, value(left), value(right))) {
+            try {
+                Object value = Interpreter.binary(expr.operator, value(left), value(right));
+                // literals hold flat strings.
+                if (value instanceof LoxString) value = value.toString();
+                return new Expr.Literal(value);
+            } catch (RuntimeError error) {
+                // keep the expression so the error is reported if and when it runs.
+            }
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    /** Whether Interpreter.binary() takes these operands without a type error, which it may not report as one. */
+    private static boolean accepts(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return true;
+            case PLUS:
+                if (LoxString.isString(left) || LoxString.isString(right)) return true;
+                // fall through.
+            default:
+                return left instanceof Double && right instanceof Double;
+        }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeExpressions(expr.arguments);
+        if (callee == expr.callee && arguments.equals(expr.arguments)) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitFunExpr(Expr.Fun expr) {
+        List<Stmt> body = optimize(expr.body);
+        return body.equals(expr.body) ? expr : new Expr.Fun(expr.params, body, expr.keyword);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        return object == expr.object ? expr : new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // parentheses only matter to the parser.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (isLiteral(left)) {
+            // "or" stops at a truthy left operand and "and" at a falsy one; either way the result is that operand.
+            boolean isOr = expr.operator.type == TokenType.OR;
+            return Interpreter.isTruthy(value(left)) == isOr ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (isLiteral(right)) {
+            Object value = value(right);
+            if (expr.operator.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(value));
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+                return new Expr.Literal(-(double)value);
+            }
+        }
+        return right == expr.right ? expr : new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr left = optimize(expr.left);
+        Expr center = optimize(expr.center);
+        Expr right = optimize(expr.right);
+        if (isLiteral(left)) return Interpreter.isTruthy(value(left)) ? center : right;
+
+        if (left == expr.left && center == expr.center && right == expr.right) return expr;
+        return new Expr.Ternary(left, center, right, expr.leftOperator, expr.rightOperator);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitIncrementExpr(Expr.Increment expr) {
+        return expr;
+    }
+
+    /** Counts the nodes in a program, for reporting how many the Optimizer removed. */
+    static int size(List<Stmt> statements) {
+        NodeCounter counter = new NodeCounter();
+        for (Stmt statement : statements) {
+            statement.accept(counter);
+        }
+        return counter.count;
+    }
+
+    private static class NodeCounter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        int count = 0;
+
+        private Void count(Object... children) {
+            count++;
+            for (Object child : children) {
+                if (child instanceof Expr) {
+                    ((Expr)child).accept(this);
+                } else if (child instanceof Stmt) {
+                    ((Stmt)child).accept(this);
+                } else if (child instanceof List) {
+                    count(((List<?>)child).toArray());
+                    // the list itself is not a node.
+                    count--;
+                }
+            }
+            return null;
+        }
+
+        @Override public Void visitBlockStmt(Stmt.Block stmt)               { return count(stmt.statements); }
+        @Override public Void visitClassStmt(Stmt.Class stmt)               { return count(stmt.superclass, stmt.methods); }
+        @Override public Void visitExpressionStmt(Stmt.Expression stmt)     { return count(stmt.expression); }
+        @Override public Void visitFunctionStmt(Stmt.Function stmt)         { return count(stmt.body); }
+        @Override public Void visitIfElseStmt(Stmt.IfElse stmt)             { return count(stmt.ifBranches, stmt.elseBranch); }
+        @Override public Void visitIfStmt(Stmt.If stmt)                     { return count(stmt.condition, stmt.body); }
+        @Override public Void visitPrintStmt(Stmt.Print stmt)               { return count(stmt.expression); }
+        @Override public Void visitReturnStmt(Stmt.Return stmt)             { return count(stmt.value); }
+        @Override public Void visitVarStmt(Stmt.Var stmt)                   { return count(stmt.initializer); }
+        @Override public Void visitWhileStmt(Stmt.While stmt)               { return count(stmt.condition, stmt.body); }
+        @Override public Void visitLoopKeywordStmt(Stmt.LoopKeyword stmt)   { return count(); }
+
+        @Override public Void visitAssignExpr(Expr.Assign expr)             { return count(expr.value); }
+        @Override public Void visitBinaryExpr(Expr.Binary expr)             { return count(expr.left, expr.right); }
+        @Override public Void visitCallExpr(Expr.Call expr)                 { return count(expr.callee, expr.arguments); }
+        @Override public Void visitFunExpr(Expr.Fun expr)                   { return count(expr.body); }
+        @Override public Void visitGetExpr(Expr.Get expr)                   { return count(expr.object); }
+        @Override public Void visitSetExpr(Expr.Set expr)                   { return count(expr.object, expr.value); }
+        @Override public Void visitSuperExpr(Expr.Super expr)               { return count(); }
+        @Override public Void visitThisExpr(Expr.This expr)                 { return count(); }
+        @Override public Void visitGroupingExpr(Expr.Grouping expr)         { return count(expr.expression); }
+        @Override public Void visitLiteralExpr(Expr.Literal expr)           { return count(); }
+        @Override public Void visitLogicalExpr(Expr.Logical expr)           { return count(expr.left, expr.right); }
+        @Override public Void visitUnaryExpr(Expr.Unary expr)               { return count(expr.right); }
+        @Override public Void visitTernaryExpr(Expr.Ternary expr)           { return count(expr.left, expr.center, expr.right); }
+        @Override public Void visitVariableExpr(Expr.Variable expr)         { return count(); }
+        @Override public Void visitIncrementExpr(Expr.Increment expr)       { return count(expr.identifier); }
+    }
+}
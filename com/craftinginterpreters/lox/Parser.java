@@ -10,6 +10,7 @@ import java.util.Arrays;
 
 /**
  * Parses a Lox string into an AST by implementing recursive descent.
+ * Binary operators are parsed by precedence climbing rather than a method per level; see expression(Precedence).
  * 
  * Full grammar implemented by this parser:
  * 
@@ -76,10 +77,58 @@ import java.util.Arrays;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // tokens are pulled from the scanner as parsing goes; only the last one consumed and the next are kept.
+    private final TokenBuffer tokens;
 
     private int loopsInside = 0;
+    // when lazy, the bodies of functions outside any block are skipped; see LazyBody.
+    private final boolean isLazy;
+    private int blocksInside = 0;
+
+    // binding power of the binary operators, lowest first.  NONE is for tokens that aren't one.
+    private enum Precedence {
+        NONE,
+        COMMA,          // ,
+        ASSIGNMENT,     // = += -=
+        OR,             // or
+        AND,            // and
+        CONDITIONAL,    // ?:
+        EQUALITY,       // == !=
+        COMPARISON,     // < > <= >=
+        TERM,           // + -
+        FACTOR,         // * /
+        UNARY;          // no binary operator; the operands of * and /
+
+        private static final Precedence[] LEVELS = values();
+
+        Precedence next() {
+            return LEVELS[ordinal() + 1];
+        }
+    }
+
+    // the precedence of each token type as a binary operator, indexed by ordinal.
+    private static final Precedence[] INFIX_PRECEDENCE = new Precedence[TokenType.values().length];
+
+    static {
+        Arrays.fill(INFIX_PRECEDENCE, Precedence.NONE);
+        INFIX_PRECEDENCE[TokenType.COMMA.ordinal()] = Precedence.COMMA;
+        for (TokenType type : TokenType.assignmentOperators) {
+            INFIX_PRECEDENCE[type.ordinal()] = Precedence.ASSIGNMENT;
+        }
+        INFIX_PRECEDENCE[TokenType.OR.ordinal()] = Precedence.OR;
+        INFIX_PRECEDENCE[TokenType.AND.ordinal()] = Precedence.AND;
+        INFIX_PRECEDENCE[TokenType.QUESTION_MARK.ordinal()] = Precedence.CONDITIONAL;
+        INFIX_PRECEDENCE[TokenType.EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX_PRECEDENCE[TokenType.BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+        INFIX_PRECEDENCE[TokenType.LESS.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[TokenType.LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[TokenType.GREATER.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[TokenType.GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        INFIX_PRECEDENCE[TokenType.MINUS.ordinal()] = Precedence.TERM;
+        INFIX_PRECEDENCE[TokenType.PLUS.ordinal()] = Precedence.TERM;
+        INFIX_PRECEDENCE[TokenType.SLASH.ordinal()] = Precedence.FACTOR;
+        INFIX_PRECEDENCE[TokenType.STAR.ordinal()] = Precedence.FACTOR;
+    }
 
     private enum FunctionType {
         FUNCTION,
@@ -87,15 +136,20 @@ public class Parser {
         STATIC_METHOD
     }
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    Parser(Scanner scanner) {
+        this(scanner, false);
+    }
+
+    Parser(Scanner scanner, boolean isLazy) {
+        this.tokens = new TokenBuffer(scanner);
+        this.isLazy = isLazy;
     }
 
     // program → declaration* EOF ;
     List<Stmt> parse() {
         List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd()) {
-            Stmt stmt = declaration();
+        while (hasNext()) {
+            Stmt stmt = next();
             if (stmt != null) {
                 statements.add(stmt);
             }
@@ -108,7 +162,7 @@ public class Parser {
     private Stmt declaration() {
         try {
             if (match(TokenType.CLASS)) return classDeclaration();
-            if (match(TokenType.FUN)) return function(FunctionType.FUNCTION);
+            if (match(TokenType.FUN)) return function(FunctionType.FUNCTION, false);
             if (match(TokenType.VAR)) return varDeclaration();
 
             return statement();
@@ -120,7 +174,8 @@ public class Parser {
 
     // classDecl → "class" IDENTIFIER ( "<" IDENTIFIER )? "{" ( "class"? function )* "}" ;
     private Stmt.Class classDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expect class name.");
+        consume(TokenType.IDENTIFIER, "Expect class name.");
+        Token name = previous();
 
         Expr.Variable superclass = null;
         if (match(TokenType.LESS)) {
@@ -133,9 +188,9 @@ public class Parser {
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
             if (match(TokenType.CLASS)) {
-                methods.add(function(FunctionType.STATIC_METHOD));
+                methods.add(function(FunctionType.STATIC_METHOD, superclass != null));
             } else {
-                methods.add(function(FunctionType.INSTANCE_METHOD));
+                methods.add(function(FunctionType.INSTANCE_METHOD, superclass != null));
             }
         }
 
@@ -145,8 +200,9 @@ public class Parser {
     }
 
     // function → IDENTIFIER ( "(" parameter? ")" )? block ;
-    private Stmt.Function function(FunctionType kind) {
-        Token name = consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+    private Stmt.Function function(FunctionType kind, boolean isSubclass) {
+        consume(TokenType.IDENTIFIER, "Expect " + kind + " name.");
+        Token name = previous();
         List<Token> parameters;
         Boolean isGetter = false;
 
@@ -162,9 +218,49 @@ public class Parser {
             isGetter = true;
         }
 
-        consume(TokenType.LEFT_BRACE, "Expect '{' before " + kind + " body.");
-        List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body, kind == FunctionType.STATIC_METHOD, isGetter);
+        String message = "Expect '{' before " + kind + " body.";
+        LazyBody lazyBody = skipBody(message, kind != FunctionType.FUNCTION, isSubclass);
+        List<Stmt> body = new ArrayList<>();
+        if (lazyBody == null) {
+            consume(TokenType.LEFT_BRACE, message);
+            body = block();
+        }
+
+        Stmt.Function function = new Stmt.Function(name, parameters, body, kind == FunctionType.STATIC_METHOD, isGetter);
+        function.lazyBody = lazyBody;
+        return function;
+    }
+
+    // when lazy and outside any block, skips the function body ahead, keeping its source for LazyBody.
+    private LazyBody skipBody(String message, boolean isMethod, boolean isSubclass) {
+        // a body in a loop could break out of it, which only parses in place.
+        if (!isLazy || blocksInside > 0 || loopsInside > 0) return null;
+
+        if (!check(TokenType.LEFT_BRACE)) throw error(peek(), message);
+        int line = tokens.peekLine();
+        String source = tokens.skipBlock();
+        if (source == null) throw error(peek(), "Expect '}' after block.");
+        return new LazyBody(source, line, isMethod, isSubclass);
+    }
+
+    /** Whether there are top-level declarations left to parse. */
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    /** Parses the next top-level declaration.  Returns null if it has a syntax error, which has been reported. */
+    Stmt next() {
+        return declaration();
+    }
+
+    /** Parses a function body LazyBody kept, from its "{" to its "}". */
+    List<Stmt> functionBody() {
+        try {
+            consume(TokenType.LEFT_BRACE, "Expect '{' before function body.");
+            return block();
+        } catch (ParseError error) {
+            return new ArrayList<>();
+        }
     }
 
     // parameter → IDENTIFIER ( "," IDENTIFIER )* ;
@@ -176,9 +272,8 @@ public class Parser {
                     error(peek(), "Cannot have more than 254 parameters.");
                 }
 
-                parameters.add(
-                    consume(TokenType.IDENTIFIER, "Expect parameter name.")
-                );
+                consume(TokenType.IDENTIFIER, "Expect parameter name.");
+                parameters.add(previous());
             } while (match(TokenType.COMMA));
         }
         return parameters;
@@ -187,7 +282,8 @@ public class Parser {
     // varDecl → "var" IDENTIFIER ( "=" expression )? ";" ;
     private Stmt varDeclaration() {
         // var token already consumed
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        consume(TokenType.IDENTIFIER, "Expect variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if (match(TokenType.EQUAL)) {
@@ -333,9 +429,11 @@ public class Parser {
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
 
+        blocksInside++;
         while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
             statements.add(declaration());
         }
+        blocksInside--;
 
         consume(TokenType.RIGHT_BRACE, "Expect '}' after block.");
         return statements;
@@ -358,7 +456,51 @@ public class Parser {
 
     // expression → comma ;
     private Expr expression() {
-        return comma();
+        return expression(Precedence.COMMA);
+    }
+
+    /**
+     * Parses an expression whose binary operators bind at least as tightly as precedence.
+     * This is precedence climbing: the operators from comma up to factor are looked up in INFIX_PRECEDENCE and
+     * handled by one loop, instead of each level of the grammar having a method that calls the next one down.
+     * Left-associative operators parse their right operand one level up; assignment and the conditional parse it
+     * at their own level or below, which makes them right-associative.
+     * Like the levels of the grammar, an operator can only be followed by operators at its own level or below, and
+     * an assignment only by a comma.  That matters when an operand ends in a funExpr, which stops at any operator.
+     */
+    private Expr expression(Precedence precedence) {
+        // a funExpr is an assignment, so it can only be the left operand of a comma.
+        boolean isFunExpr = precedence.compareTo(Precedence.ASSIGNMENT) <= 0 && match(TokenType.FUN);
+        Expr expr = isFunExpr ? funExpr() : unary();
+        // the highest precedence the next operator may have.
+        Precedence ceiling = isFunExpr ? Precedence.COMMA : Precedence.FACTOR;
+
+        while (true) {
+            Precedence operatorPrecedence = INFIX_PRECEDENCE[tokens.peekType().ordinal()];
+            if (operatorPrecedence.compareTo(precedence) < 0) break;
+            if (operatorPrecedence.compareTo(ceiling) > 0) break;
+            ceiling = operatorPrecedence == Precedence.ASSIGNMENT ? Precedence.COMMA : operatorPrecedence;
+
+            advance();
+            Token operator = previous();
+            switch (operatorPrecedence) {
+                case ASSIGNMENT:
+                    expr = assignment(expr, operator);
+                    break;
+                case CONDITIONAL:
+                    expr = conditional(expr, operator);
+                    break;
+                case OR:
+                case AND:
+                    expr = new Expr.Logical(expr, operator, expression(operatorPrecedence.next()));
+                    break;
+                default:
+                    expr = new Expr.Binary(expr, operator, expression(operatorPrecedence.next()));
+                    break;
+            }
+        }
+
+        return expr;
     }
 
     // funExpr → "fun" "(" parameter? ")" block ;
@@ -371,174 +513,83 @@ public class Parser {
 
         consume(TokenType.RIGHT_PAREN, "Expect ')' after parameter list.");
 
-        consume(TokenType.LEFT_BRACE, "Expect '{' before function body.");
-        List<Stmt> body = block();
-
-        return new Expr.Fun(params, body, keyword);
-    }
-
-    // comma → assignment ( "," assignment )* ;
-    private Expr comma() {
-        Expr expr = assignment();
-        while (match(TokenType.COMMA)) {
-            Token operator = previous();
-            Expr right = assignment();
-            expr = new Expr.Binary(expr, operator, right);
+        String message = "Expect '{' before function body.";
+        LazyBody lazyBody = skipBody(message, false, false);
+        List<Stmt> body = new ArrayList<>();
+        if (lazyBody == null) {
+            consume(TokenType.LEFT_BRACE, message);
+            body = block();
         }
 
-        return expr;
+        Expr.Fun fun = new Expr.Fun(params, body, keyword);
+        fun.lazyBody = lazyBody;
+        return fun;
     }
 
     // assignment → ( call "." )? IDENTIFIER ( "=" | "+=" | "-=" ) assignment
     //              | logic_or
     //              | funExpr
-    private Expr assignment() {
-        if (match(TokenType.FUN)) {
-            return funExpr();
-        }
-        Expr identifier = or(); // if we're not in an assignment, then this var holds the result of the logic_or production.
-
-        if (match(TokenType.assignmentOperators)) {
-            Token operator = previous();
-            Expr value = assignment();
-
-            if (identifier instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)identifier).name;
-                // Syntactic sugar: parse "a += <exp>;" as "a = a + <exp>;"
-                if (operator.type == TokenType.PLUS_EQUAL) {
-                    // create binary addition expression
-                    value = new Expr.Binary(
-                        identifier, 
-                        new Token(TokenType.PLUS, "+", null, operator.line), 
-                        value);
-                } else if (operator.type == TokenType.MINUS_EQUAL) {
-                    // create binary subtraction expression
-                    value = new Expr.Binary(
-                        identifier, 
-                        new Token(TokenType.MINUS, "-", null, operator.line), 
-                        value);
-                }
-                return new Expr.Assign(name, value);
-            } else if (identifier instanceof Expr.Get) {
-                Expr.Get get = (Expr.Get)identifier;
-                return new Expr.Set(get.object, get.name, value);
+    private Expr assignment(Expr identifier, Token operator) {
+        Expr value = expression(Precedence.ASSIGNMENT);
+
+        if (identifier instanceof Expr.Variable) {
+            Token name = ((Expr.Variable)identifier).name;
+            // Syntactic sugar: parse "a += <exp>;" as "a = a + <exp>;"
+            if (operator.type == TokenType.PLUS_EQUAL) {
+                // create binary addition expression
+                value = new Expr.Binary(
+                    identifier, 
+                    new Token(TokenType.PLUS, "+", null, operator.line), 
+                    value);
+            } else if (operator.type == TokenType.MINUS_EQUAL) {
+                // create binary subtraction expression
+                value = new Expr.Binary(
+                    identifier, 
+                    new Token(TokenType.MINUS, "-", null, operator.line), 
+                    value);
             }
-
-            error(operator, "Invalid assignment target.");
+            return new Expr.Assign(name, value);
+        } else if (identifier instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get)identifier;
+            return new Expr.Set(get.object, get.name, value);
         }
 
+        error(operator, "Invalid assignment target.");
         return identifier;
     }
 
-    // logic_or → logic_and ( "or" logic_and )* ;
-    private Expr or() {
-        Expr expr = and();
-        while (match(TokenType.OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    // logic_and → conditional ( "and" conditional)* ;
-    private Expr and() {
-        Expr expr = conditional();
-
-        while (match(TokenType.AND)) {
-            Token operator = previous();
-            Expr right = conditional();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
     // conditional → equality ( "?" expression ":" expression )* ; --right-associative
-    private Expr conditional() {
-        Expr predicate = equality();
-        while (match(TokenType.QUESTION_MARK)) {
-            Token leftOperator = previous();
-            Expr consequent = expression();
-            consume(TokenType.COLON, "Expect ':' following ternary operator '?'");
-            Token rightOperator = previous();
-            Expr alternative = expression();
-            predicate = new Expr.Ternary(
-                predicate, 
-                consequent, 
-                alternative,
-                leftOperator, 
-                rightOperator
-            );
-        }
-        return predicate;
-    }
-
-
-    // equality → comparison ( ( "!=" | "==" ) comparison )* ;
-    private Expr equality() {
-        Expr expr = comparison();
-        while (match(TokenType.BANG_EQUAL, TokenType.EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    // comparison → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-    private Expr comparison() {
-        Expr expr = term();
-        while (match(TokenType.GREATER, TokenType.GREATER_EQUAL, TokenType.LESS, TokenType.LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    // term → factor ( ( "-" | "+" ) factor )* ;
-    private Expr term() {
-        Expr expr = factor();
-        while(match(TokenType.MINUS, TokenType.PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
-    }
-
-    // factor → unary ( ( "/" | "*" ) unary )* ;
-    private Expr factor() {
-        Expr expr = unary();
-        while(match(TokenType.SLASH, TokenType.STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-        return expr;
+    private Expr conditional(Expr predicate, Token leftOperator) {
+        Expr consequent = expression();
+        consume(TokenType.COLON, "Expect ':' following ternary operator '?'");
+        Token rightOperator = previous();
+        Expr alternative = expression();
+        return new Expr.Ternary(
+            predicate, 
+            consequent, 
+            alternative,
+            leftOperator, 
+            rightOperator
+        );
     }
 
     // unary → ( "!" | "-" ) unary | increment ;
-    private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        } 
-
-        return increment();
-    }
-
     // increment → postIncrement | preIncrement ;
-    private Expr increment() throws ParseError {
-        if (!match(TokenType.incrementOperators)) {
-            // post-inc or higher precedence expression
-            return postIncrement();
-        } else {
-            // pre-inc
-            return preIncrement();
+    private Expr unary() {
+        switch (tokens.peekType()) {
+            case BANG:
+            case MINUS:
+                advance();
+                Token operator = previous();
+                Expr right = unary();
+                return new Expr.Unary(operator, right);
+            case PLUS_PLUS:
+            case MINUS_MINUS:
+                advance();
+                return preIncrement();
+            default:
+                // post-inc or higher precedence expression
+                return postIncrement();
         }
     }
 
@@ -607,7 +658,8 @@ public class Parser {
             if (match(TokenType.LEFT_PAREN)) {
                 expr = finishCall(expr);
             } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expect property name after dot access '.'.");
+                consume(TokenType.IDENTIFIER, "Expect property name after dot access '.'.");
+                Token name = previous();
                 expr = new Expr.Get(expr, name); 
             } else {
                 break;
@@ -622,49 +674,65 @@ public class Parser {
         List<Expr> arguments = new ArrayList<>();
         if (!check(TokenType.RIGHT_PAREN)) {
             do {
-                arguments.add(assignment());
+                arguments.add(expression(Precedence.ASSIGNMENT));
             } while (match(TokenType.COMMA));
             if (arguments.size() >= 255) {
                 error(peek(), "Can't have more than 255 arguments.");
             }
         }
 
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after argument list. ");
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after argument list. ");
+
+        Token paren = previous();
 
         return new Expr.Call(callee, paren, arguments);
     }
 
     // primary → NUMBER | STRING | "true" | "false" | "nil" | "(" expression ")" | "super" "." IDENTIFIER | IDENTIFIER | primaryError ;
     private Expr primary() {
-        if (match(TokenType.FALSE)) return new Expr.Literal(false);
-        if (match(TokenType.TRUE)) return new Expr.Literal(true);
-        if (match(TokenType.NIL)) return new Expr.Literal(null);
-
-        if (match(TokenType.NUMBER, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
-        }
+        switch (tokens.peekType()) {
+            case FALSE:
+                advance();
+                return new Expr.Literal(false);
+            case TRUE:
+                advance();
+                return new Expr.Literal(true);
+            case NIL:
+                advance();
+                return new Expr.Literal(null);
 
-        if (match(TokenType.SUPER)) {
-            Token keyword = previous();
-            consume(TokenType.DOT, "Expect '.' after 'super'.");
-            Token method = consume(TokenType.IDENTIFIER, "Expect superclass method name.");
-            return new Expr.Super(keyword, method);
-        }
+            case NUMBER:
+            case STRING:
+                advance();
+                return new Expr.Literal(previous().literal);
 
-        if (match(TokenType.THIS)) return new Expr.This(previous());
+            case SUPER: {
+                advance();
+                Token keyword = previous();
+                consume(TokenType.DOT, "Expect '.' after 'super'.");
+                consume(TokenType.IDENTIFIER, "Expect superclass method name.");
+                Token method = previous();
+                return new Expr.Super(keyword, method);
+            }
 
-        if (match(TokenType.IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+            case THIS:
+                advance();
+                return new Expr.This(previous());
 
-        if (match(TokenType.LEFT_PAREN)) {
-            Expr expr = expression();
-            consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+            case IDENTIFIER:
+                advance();
+                return new Expr.Variable(previous());
 
-        return primaryError();
+            case LEFT_PAREN: {
+                advance();
+                Expr expr = expression();
+                consume(TokenType.RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(expr);
+            }
 
+            default:
+                return primaryError();
+        }
     }
 
     // primaryError  → binaryError ;
@@ -681,42 +749,49 @@ public class Parser {
         throw error(peek(), "Expect expression.");
     }
 
-    private boolean match(TokenType... types) {
+    private boolean match(TokenType type) {
+        if (!check(type)) return false;
+        advance();
+        return true;
+    }
+
+    // matches any of a fixed set of types, such as TokenType.incrementOperators.
+    private boolean match(TokenType[] types) {
         for (TokenType type : types) {
-            if (check(type)) {
-                advance();
-                return true;
-            }
+            if (match(type)) return true;
         }
 
         return false;
     }
 
-    private Token consume(TokenType type, String message) throws ParseError {
-        if (check(type)) return advance();
+    private void consume(TokenType type, String message) throws ParseError {
+        if (check(type)) {
+            advance();
+            return;
+        }
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.peekType() == type;
     }
 
-    private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous(); 
+    private void advance() {
+        if (!isAtEnd()) tokens.advance();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.peekType() == TokenType.EOF;
     }
 
+    // makes a Token of the next token, so only for error messages.
     private Token peek() {
-        return tokens.get(current);
+        return tokens.peek();
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.previous();
     }
 
     private ParseError error(Token token, String message) {
@@ -728,9 +803,9 @@ public class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == TokenType.SEMICOLON) return;
+            if (tokens.previousType() == TokenType.SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.peekType()) {
                 case CLASS:  
                 case FUN:
                 case VAR:
@@ -0,0 +1,699 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of resolved programs, so a script that hasn't changed since its last run skips the front end.
+ * Each entry is the optimized and resolved AST in a compact binary form, keyed by a hash of the source and of
+ * everything else the AST depends on.  Entries are read through a memory-mapped buffer.
+ *
+ * Only what the front end works out is stored: the nodes, the Resolver's slots and frame layouts, and the warnings
+ * it reported, which a cached run reports again.  What the interpreter learns while running, such as
+ * specializations and property caches, starts out fresh.  Names are re-interned as they are read, as the runtime
+ * looks them up by identity.  A checksum of everything after the header is checked before an entry is read, so a
+ * damaged entry is compiled and stored again like a missing one.
+ */
+final class ProgramCache {
+    private static final int MAGIC = 0x4C4F5843; // "LOXC"
+    /** Bump whenever the AST or this format changes, which orphans every existing entry. */
+    private static final int VERSION = 2;
+
+    /** A program read from the cache. */
+    static final class Program {
+        final List<Stmt> statements;
+        /** frame size top-level blocks need; see Interpreter.reserveFrame(). */
+        final int frameSize;
+        /** warnings compiling it reported, in the order and form they were reported. */
+        final String warnings;
+
+        Program(List<Stmt> statements, int frameSize, String warnings) {
+            this.statements = statements;
+            this.frameSize = frameSize;
+            this.warnings = warnings;
+        }
+    }
+
+    private final Path directory;
+
+    ProgramCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /** Returns the key for a script, which also covers the options and charset the AST it compiles to depends on. */
+    String key(byte[] source, boolean optimize) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((VERSION + " " + optimize + " " + Charset.defaultCharset().name() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(source)) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256.
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Returns the program cached under key, or null if there is none or it can't be read. */
+    Program load(String key) throws IOException {
+        try (FileChannel channel = FileChannel.open(path(key), StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Decoder(buffer).program();
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // truncated or otherwise damaged; it gets compiled and stored again.
+            return null;
+        }
+    }
+
+    /** Stores a resolved program under key.  The entry appears all at once, so concurrent runs never see half. */
+    void store(String key, List<Stmt> statements, int frameSize, String warnings) throws IOException {
+        Encoder encoder = new Encoder();
+        encoder.program(statements, frameSize, warnings);
+
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temporary, encoder.toByteArray());
+            Files.move(temporary, path(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private Path path(String key) {
+        return directory.resolve(key + ".loxc");
+    }
+
+    // magic, version and checksum.
+    private static final int HEADER_SIZE = 12;
+
+    // node tags.  0 is null.
+    private static final int ASSIGN = 1, BINARY = 2, CALL = 3, FUN = 4, GET = 5, SET = 6, SUPER = 7, THIS = 8,
+        GROUPING = 9, LITERAL = 10, LOGICAL = 11, UNARY = 12, TERNARY = 13, VARIABLE = 14, INCREMENT = 15;
+    private static final int BLOCK = 1, CLASS = 2, EXPRESSION = 3, FUNCTION = 4, IF_ELSE = 5, IF = 6, PRINT = 7,
+        RETURN = 8, VAR = 9, WHILE = 10, LOOP_KEYWORD = 11;
+
+    // literal value tags.
+    private static final int NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+    private static final IncrementType[] INCREMENT_TYPES = IncrementType.values();
+
+    /**
+     * Writes a program.  Integers are written as variable-length quantities, and a string that was written
+     * before is written as a reference to its first occurrence.
+     */
+    private static final class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        void program(List<Stmt> statements, int frameSize, String warnings) {
+            writeInt(MAGIC);
+            writeInt(VERSION);
+            // the checksum, filled in by toByteArray().
+            writeInt(0);
+            writeUnsigned(frameSize);
+            writeString(warnings);
+            writeStatements(statements);
+        }
+
+        byte[] toByteArray() {
+            byte[] bytes = out.toByteArray();
+            CRC32 checksum = new CRC32();
+            checksum.update(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+            int value = (int)checksum.getValue();
+            for (int i = 0; i < 4; i++) {
+                bytes[HEADER_SIZE - 4 + i] = (byte)(value >>> (24 - 8 * i));
+            }
+            return bytes;
+        }
+
+        private void writeInt(int value) {
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                out.write(value >>> shift);
+            }
+        }
+
+        private void writeUnsigned(int value) {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void writeBoolean(boolean value) {
+            out.write(value ? 1 : 0);
+        }
+
+        private void writeString(String value) {
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeUnsigned(index + 1);
+                return;
+            }
+            strings.put(value, strings.size());
+            writeUnsigned(0);
+            writeUnsigned(value.length());
+            for (int i = 0; i < value.length(); i++) {
+                writeUnsigned(value.charAt(i));
+            }
+        }
+
+        private void writeValue(Object value) {
+            if (value == null) {
+                out.write(NIL);
+            } else if (value instanceof Boolean) {
+                out.write((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                out.write(NUMBER);
+                long bits = Double.doubleToRawLongBits((Double)value);
+                writeInt((int)(bits >>> 32));
+                writeInt((int)bits);
+            } else {
+                // strings, including ropes the Optimizer might have folded.
+                out.write(STRING);
+                writeString(value.toString());
+            }
+        }
+
+        private void writeToken(Token token) {
+            if (token == null) {
+                writeUnsigned(0);
+                return;
+            }
+            writeUnsigned(token.type.ordinal() + 1);
+            writeString(token.lexeme);
+            writeValue(token.literal);
+            writeUnsigned(token.line);
+        }
+
+        private void writeTokens(List<Token> tokens) {
+            writeUnsigned(tokens.size());
+            for (Token token : tokens) {
+                writeToken(token);
+            }
+        }
+
+        private void writeSlot(VarSlot slot) {
+            if (slot == null) {
+                writeUnsigned(0);
+                return;
+            }
+            // depth is FRAME or more.
+            writeUnsigned(slot.depth - VarSlot.FRAME + 1);
+            writeUnsigned(slot.index);
+        }
+
+        private void writeLayout(FrameLayout layout) {
+            writeUnsigned(layout.size);
+            writeUnsigned(layout.environmentSize);
+            if (layout.captured == null) {
+                writeUnsigned(0);
+                return;
+            }
+            writeUnsigned(layout.captured.length + 1);
+            for (int slot : layout.captured) {
+                writeUnsigned(slot);
+            }
+        }
+
+        private void write(Expr expr) {
+            if (expr == null) {
+                out.write(0);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void write(Stmt stmt) {
+            if (stmt == null) {
+                out.write(0);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        private void writeExpressions(List<Expr> exprs) {
+            writeUnsigned(exprs.size());
+            for (Expr expr : exprs) {
+                write(expr);
+            }
+        }
+
+        private void writeStatements(List<? extends Stmt> stmts) {
+            writeUnsigned(stmts.size());
+            for (Stmt stmt : stmts) {
+                write(stmt);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            out.write(ASSIGN);
+            writeToken(expr.name);
+            write(expr.value);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            out.write(BINARY);
+            write(expr.left);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            out.write(CALL);
+            write(expr.callee);
+            writeToken(expr.paren);
+            writeExpressions(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitFunExpr(Expr.Fun expr) {
+            out.write(FUN);
+            writeTokens(expr.params);
+            writeStatements(expr.body);
+            writeToken(expr.keyword);
+            writeLayout(expr.layout);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            out.write(GET);
+            write(expr.object);
+            writeToken(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            out.write(SET);
+            write(expr.object);
+            writeToken(expr.name);
+            write(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            out.write(SUPER);
+            writeToken(expr.keyword);
+            writeToken(expr.method);
+            writeSlot(expr.slot);
+            writeSlot(expr.thisSlot);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            out.write(THIS);
+            writeToken(expr.keyword);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            out.write(GROUPING);
+            write(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            out.write(LITERAL);
+            writeValue(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            out.write(LOGICAL);
+            write(expr.left);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            out.write(UNARY);
+            writeToken(expr.operator);
+            write(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            out.write(TERNARY);
+            write(expr.left);
+            write(expr.center);
+            write(expr.right);
+            writeToken(expr.leftOperator);
+            writeToken(expr.rightOperator);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            out.write(VARIABLE);
+            writeToken(expr.name);
+            writeSlot(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitIncrementExpr(Expr.Increment expr) {
+            out.write(INCREMENT);
+            write(expr.identifier);
+            writeToken(expr.operator);
+            writeUnsigned(expr.type.ordinal());
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            out.write(BLOCK);
+            writeStatements(stmt.statements);
+            writeUnsigned(stmt.environmentSize);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            out.write(CLASS);
+            writeToken(stmt.name);
+            write(stmt.superclass);
+            writeStatements(stmt.methods);
+            writeSlot(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            out.write(EXPRESSION);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            out.write(FUNCTION);
+            writeToken(stmt.name);
+            writeTokens(stmt.params);
+            writeStatements(stmt.body);
+            writeBoolean(stmt.isStatic);
+            writeBoolean(stmt.isAutoInvoke);
+            writeLayout(stmt.layout);
+            writeSlot(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitIfElseStmt(Stmt.IfElse stmt) {
+            out.write(IF_ELSE);
+            writeStatements(stmt.ifBranches);
+            write(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            out.write(IF);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            out.write(PRINT);
+            write(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            out.write(RETURN);
+            writeToken(stmt.keyword);
+            write(stmt.value);
+            writeBoolean(stmt.isTailCall);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            out.write(VAR);
+            writeToken(stmt.name);
+            write(stmt.initializer);
+            writeSlot(stmt.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            out.write(WHILE);
+            write(stmt.condition);
+            write(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitLoopKeywordStmt(Stmt.LoopKeyword stmt) {
+            out.write(LOOP_KEYWORD);
+            writeToken(stmt.token);
+            return null;
+        }
+    }
+
+    /** Reads a program the Encoder wrote, throwing a RuntimeException if it isn't one. */
+    private static final class Decoder {
+        private final ByteBuffer in;
+        private final List<String> strings = new ArrayList<>();
+
+        Decoder(ByteBuffer in) {
+            this.in = in;
+        }
+
+        Program program() {
+            if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IllegalStateException("Not a cached program.");
+            int expected = in.getInt();
+            CRC32 checksum = new CRC32();
+            checksum.update(in.duplicate());
+            if ((int)checksum.getValue() != expected) throw new IllegalStateException("Damaged cached program.");
+            int frameSize = readUnsigned();
+            String warnings = readString();
+            List<Stmt> statements = readStatements();
+            return new Program(statements, frameSize, warnings);
+        }
+
+        private int readUnsigned() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = in.get();
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        private boolean readBoolean() {
+            return in.get() != 0;
+        }
+
+        private String readString() {
+            int index = readUnsigned();
+            if (index > 0) return strings.get(index - 1);
+
+            char[] chars = new char[readUnsigned()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char)readUnsigned();
+            }
+            String value = new String(chars);
+            strings.add(value);
+            return value;
+        }
+
+        private Object readValue() {
+            switch (in.get()) {
+                case NIL: return null;
+                case FALSE: return false;
+                case TRUE: return true;
+                case NUMBER: return Double.longBitsToDouble(in.getLong());
+                case STRING: return readString();
+                default: throw new IllegalStateException("Bad value tag.");
+            }
+        }
+
+        private Token readToken() {
+            int type = readUnsigned();
+            if (type == 0) return null;
+            TokenType tokenType = TOKEN_TYPES[type - 1];
+            String lexeme = readString();
+            // the runtime's tables of names are keyed by identity, and Symbols interns the same way.
+            if (tokenType != TokenType.STRING && tokenType != TokenType.NUMBER) lexeme = lexeme.intern();
+            Object literal = readValue();
+            int line = readUnsigned();
+            return new Token(tokenType, lexeme, literal, line);
+        }
+
+        private List<Token> readTokens() {
+            int size = readUnsigned();
+            List<Token> tokens = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                tokens.add(readToken());
+            }
+            return tokens;
+        }
+
+        private VarSlot readSlot() {
+            int depth = readUnsigned();
+            if (depth == 0) return null;
+            return new VarSlot(depth + VarSlot.FRAME - 1, readUnsigned());
+        }
+
+        private void readLayout(FrameLayout layout) {
+            layout.size = readUnsigned();
+            layout.environmentSize = readUnsigned();
+            int captured = readUnsigned();
+            if (captured == 0) return;
+            layout.captured = new int[captured - 1];
+            for (int i = 0; i < layout.captured.length; i++) {
+                layout.captured[i] = readUnsigned();
+            }
+        }
+
+        private List<Expr> readExpressions() {
+            int size = readUnsigned();
+            List<Expr> exprs = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                exprs.add(readExpr());
+            }
+            return exprs;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Stmt> List<T> readStatements() {
+            int size = readUnsigned();
+            List<T> stmts = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                stmts.add((T)readStmt());
+            }
+            return stmts;
+        }
+
+        private Expr readExpr() {
+            switch (in.get()) {
+                case 0: return null;
+                case ASSIGN: {
+                    Expr.Assign expr = new Expr.Assign(readToken(), readExpr());
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case BINARY: return new Expr.Binary(readExpr(), readToken(), readExpr());
+                case CALL: return new Expr.Call(readExpr(), readToken(), readExpressions());
+                case FUN: {
+                    Expr.Fun expr = new Expr.Fun(readTokens(), readStatements(), readToken());
+                    readLayout(expr.layout);
+                    return expr;
+                }
+                case GET: return new Expr.Get(readExpr(), readToken());
+                case SET: return new Expr.Set(readExpr(), readToken(), readExpr());
+                case SUPER: {
+                    Expr.Super expr = new Expr.Super(readToken(), readToken());
+                    expr.slot = readSlot();
+                    expr.thisSlot = readSlot();
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(readToken());
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case GROUPING: return new Expr.Grouping(readExpr());
+                case LITERAL: return new Expr.Literal(readValue());
+                case LOGICAL: return new Expr.Logical(readExpr(), readToken(), readExpr());
+                case UNARY: return new Expr.Unary(readToken(), readExpr());
+                case TERNARY: return new Expr.Ternary(readExpr(), readExpr(), readExpr(), readToken(), readToken());
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(readToken());
+                    expr.slot = readSlot();
+                    return expr;
+                }
+                case INCREMENT:
+                    return new Expr.Increment((Expr.Variable)readExpr(), readToken(), INCREMENT_TYPES[readUnsigned()]);
+                default:
+                    throw new IllegalStateException("Bad expression tag.");
+            }
+        }
+
+        private Stmt readStmt() {
+            switch (in.get()) {
+                case 0: return null;
+                case BLOCK: {
+                    Stmt.Block stmt = new Stmt.Block(readStatements());
+                    stmt.environmentSize = readUnsigned();
+                    return stmt;
+                }
+                case CLASS: {
+                    Stmt.Class stmt = new Stmt.Class(readToken(), (Expr.Variable)readExpr(), readStatements());
+                    stmt.slot = readSlot();
+                    return stmt;
+                }
+                case EXPRESSION: return new Stmt.Expression(readExpr());
+                case FUNCTION: {
+                    Stmt.Function stmt = new Stmt.Function(
+                        readToken(), readTokens(), readStatements(), readBoolean(), readBoolean());
+                    readLayout(stmt.layout);
+                    stmt.slot = readSlot();
+                    return stmt;
+                }
+                case IF_ELSE: return new Stmt.IfElse(readStatements(), readStmt());
+                case IF: return new Stmt.If(readExpr(), readStmt());
+                case PRINT: return new Stmt.Print(readExpr());
+                case RETURN: {
+                    Stmt.Return stmt = new Stmt.Return(readToken(), readExpr());
+                    stmt.isTailCall = readBoolean();
+                    return stmt;
+                }
+                case VAR: {
+                    Stmt.Var stmt = new Stmt.Var(readToken(), readExpr());
+                    stmt.slot = readSlot();
+                    return stmt;
+                }
+                case WHILE: return new Stmt.While(readExpr(), readStmt());
+                case LOOP_KEYWORD: return new Stmt.LoopKeyword(readToken());
+                default:
+                    throw new IllegalStateException("Bad statement tag.");
+            }
+        }
+    }
+}
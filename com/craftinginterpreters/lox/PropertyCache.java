@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Inline cache for one Get or Set expression, keyed on the receiver's Shape.
+ * The cache is monomorphic while it holds one entry and polymorphic up to MAX_ENTRIES.
+ * A site that sees more shapes than that is megamorphic: it stops caching and looks each access up on the shape.
+ */
+final class PropertyCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private static final class Entry {
+        final Shape shape;
+        /** slot of the field read or written, or -1 when a Get entry resolves to a method. */
+        final int slot;
+        /** for a Get of a method, the method to bind. */
+        final LoxFunction method;
+        /** for a Set that adds the field, the shape the instance moves to. */
+        final Shape next;
+
+        Entry(Shape shape, int slot, LoxFunction method, Shape next) {
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method;
+            this.next = next;
+        }
+    }
+
+    private final Entry[] entries = new Entry[MAX_ENTRIES];
+    private int count = 0;
+
+    Object get(LoxInstance instance, Token name) {
+        Entry entry = lookUp(instance, name);
+        return entry.method == null ? instance.fields[entry.slot] : entry.method.bind(instance);
+    }
+
+    /** Returns the unbound method a Get of this property finds, or null if the property is a field. */
+    LoxFunction method(LoxInstance instance, Token name) {
+        return lookUp(instance, name).method;
+    }
+
+    private Entry lookUp(LoxInstance instance, Token name) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries[i];
+            if (entry.shape == shape) return entry;
+        }
+
+        // fields shadow methods, and a shape belongs to a single class, so both answers are fixed per shape.
+        int slot = shape.slotOf(name.lexeme);
+        LoxFunction method = null;
+        if (slot < 0) {
+            method = instance.klass.findMethod(name.lexeme);
+            if (method == null) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+        }
+        Entry entry = new Entry(shape, slot, method, null);
+        if (count < MAX_ENTRIES) {
+            entries[count++] = entry;
+        }
+        return entry;
+    }
+
+    void set(LoxInstance instance, Token name, Object value) {
+        Shape shape = instance.shape;
+        for (int i = 0; i < count; i++) {
+            Entry entry = entries[i];
+            if (entry.shape == shape) {
+                if (entry.next != null) instance.transition(entry.next);
+                instance.fields[entry.slot] = value;
+                return;
+            }
+        }
+
+        int slot = shape.slotOf(name.lexeme);
+        Shape next = null;
+        if (slot < 0) {
+            slot = shape.size();
+            next = shape.withField(name.lexeme);
+        }
+        if (count < MAX_ENTRIES) {
+            entries[count++] = new Entry(shape, slot, null, next);
+        }
+        if (next != null) instance.transition(next);
+        instance.fields[slot] = value;
+    }
+}
@@ -1,7 +1,8 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -9,12 +10,27 @@ import java.util.Map.Entry;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Stack<Map<String, VarState>> scopes = new Stack<>();
+    private final boolean isReporting;
+    private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
+    // blocks in top-level code keep their locals in a frame of the interpreter's own.
+    private FrameLayout currentFrame = new FrameLayout();
+    private int nextSlot = 0;
+    // loops the current function is inside of; a block in a loop needs fresh variables each time around.
+    private int loops = 0;
 
     public Resolver(Interpreter interpreter) {
+        this(interpreter, true);
+    }
+
+    /**
+     * A Resolver that isn't reporting only lays the program out.  See Lox.compile(), which checks a program as it
+     * was written and then lays out the program the Optimizer made of it, which reports nothing new.
+     */
+    Resolver(Interpreter interpreter, boolean isReporting) {
         this.interpreter = interpreter;
+        this.isReporting = isReporting;
     }
 
     private enum FunctionType {
@@ -30,6 +46,47 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS
     }
 
+    /**
+     * A scope being resolved, with its variables in declaration order.
+     * Uses of its variables are only resolved when it ends, as until then a closure may still capture any of them.
+     */
+    private static class Scope {
+        final Map<String, VarState> variables = new LinkedHashMap<>();
+        final FrameLayout frame;
+        final int firstSlot;
+        final int loops;
+        /** blocks merge into the scope around them, other scopes always keep their own Environment. */
+        final boolean isBlock;
+        final List<Use> uses = new ArrayList<>();
+        /** captured variables of blocks merged into this scope, kept in its Environment. */
+        final List<VarState> merged = new ArrayList<>();
+        /** number of captured variables the scope keeps.  A scope only has an Environment at runtime if it has any. */
+        int environmentSize = 0;
+
+        Scope(FrameLayout frame, int firstSlot, int loops, boolean isBlock) {
+            this.frame = frame;
+            this.firstSlot = firstSlot;
+            this.loops = loops;
+            this.isBlock = isBlock;
+        }
+    }
+
+    /** A use of a local variable, with the scopes between it and the variable's own. */
+    private static class Use {
+        final Expr expr;
+        final VarState variable;
+        final List<Scope> crossed;
+        /** true for the "this" a super expression binds its method to. */
+        final boolean isSuperReceiver;
+
+        Use(Expr expr, VarState variable, List<Scope> crossed, boolean isSuperReceiver) {
+            this.expr = expr;
+            this.variable = variable;
+            this.crossed = crossed;
+            this.isSuperReceiver = isSuperReceiver;
+        }
+    }
+
     void resolve(List<Stmt> stmts) {
         for (Stmt stmt : stmts) {
             resolve(stmt);
@@ -45,59 +102,205 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void resolveLocal(Expr expr, Token name) {
+        resolveLocal(expr, name, false);
+    }
+
+    private void resolveLocal(Expr expr, Token name, boolean isSuperReceiver) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Scope scope = scopes.get(i);
+            VarState state = scope.variables.get(name.lexeme);
+            if (state != null) {
+                // a use from another function outlives the frame the variable would otherwise live in.
+                if (scope.frame != currentFrame) state.isCaptured = true;
+                scope.uses.add(new Use(expr, state, new ArrayList<>(scopes.subList(i + 1, scopes.size())), isSuperReceiver));
                 return;
             }
         }
     }
 
+    /** Works out where a use finds its variable, once the variable's scope and every scope in between have ended. */
+    private VarSlot locate(Use use) {
+        if (!use.variable.isCaptured) return new VarSlot(VarSlot.FRAME, use.variable.slot);
+
+        int depth = 0;
+        for (Scope scope : use.crossed) {
+            if (scope.environmentSize > 0) depth++;
+        }
+        return new VarSlot(depth, use.variable.environmentSlot);
+    }
+
+    // a body left for LazyBody is resolved once it has been parsed; see resolveLazily().
     private void resolveFunction(Stmt.Function function, FunctionType type) {
-        resolveFunction(function.params, function.body, type);
+        if (function.lazyBody != null) return;
+        resolveFunction(function.name, function.params, function.body, function.layout, type);
     }
 
     private void resolveFunction(Expr.Fun function, FunctionType type) {
-        resolveFunction(function.params, function.body, type);
+        if (function.lazyBody != null) return;
+        resolveFunction(function.keyword, function.params, function.body, function.layout, type);
+    }
+
+    /**
+     * Resolves a function body LazyBody parsed after the rest of the program.  The function was declared outside
+     * any block, so the only scope around it is the "super" of a subclass it is a method of.
+     */
+    void resolveLazily(Token name, List<Token> params, List<Stmt> body, FrameLayout layout,
+                       boolean isMethod, boolean isSubclass) {
+        ClassType enclosingClass = currentClass;
+        FunctionType type = FunctionType.FUNCTION;
+        currentClass = ClassType.NONE;
+        if (isMethod) {
+            currentClass = isSubclass ? ClassType.SUBCLASS : ClassType.CLASS;
+            type = name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+        }
+
+        if (isSubclass) beginSuperScope(name);
+        resolveFunction(name, params, body, layout, type);
+        if (isSubclass) endScope();
+        currentClass = enclosingClass;
     }
 
-    private void resolveFunction(List<Token> params, List<Stmt> body, FunctionType type) {
+    private void resolveFunction(Token name, List<Token> params, List<Stmt> body, FrameLayout layout, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
+        FrameLayout enclosingFrame = currentFrame;
+        int enclosingSlot = nextSlot;
+        int enclosingLoops = loops;
         currentFunction = type;
-        beginScope();
+        currentFrame = layout;
+        nextSlot = 0;
+        loops = 0;
+        layout.size = 0;
+
+        beginScope(false);
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // a method's own frame holds "this" ahead of its parameters; see LoxFunction.call().
+            scopes.peek().variables.put("this", new VarState(VarLifecycle.DEFINED, name, allocate()));
+        }
         for (Token param : params) {
             declare(param);
             define(param);
         }
         resolve(body);
-        endScope();
+        Scope scope = endScope();
+
+        // captured parameters are copied into the Environment each call creates.  Its other variables are
+        // declared in the body, which defines them there itself.
+        layout.captured = null;
+        layout.environmentSize = scope.environmentSize;
+        if (scope.environmentSize > 0) {
+            List<VarState> captured = new ArrayList<>();
+            for (VarState state : scope.variables.values()) {
+                if (state.isCaptured && state.statement == null) captured.add(state);
+            }
+            layout.captured = new int[captured.size()];
+            for (int i = 0; i < layout.captured.length; i++) {
+                layout.captured[i] = captured.get(i).slot;
+            }
+        }
+
         currentFunction = enclosingFunction;
+        currentFrame = enclosingFrame;
+        nextSlot = enclosingSlot;
+        loops = enclosingLoops;
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<String, VarState>());
+    private void beginScope(boolean isBlock) {
+        scopes.push(new Scope(currentFrame, nextSlot, loops, isBlock));
     }
 
-    private void endScope() {
-        Map<String, VarState> scope = scopes.pop();
-        checkVarUsage(scope);
+    // create scope with bound "super" for later calls.  The methods capture it, so it has no frame slot.
+    private void beginSuperScope(Token declaration) {
+        beginScope(false);
+        VarState state = new VarState(VarLifecycle.DEFINED, declaration, -1);
+        state.isCaptured = true;
+        scopes.peek().variables.put("super", state);
+    }
+
+    /**
+     * Ends the innermost scope and resolves every use of its variables.
+     * Uncaptured variables live in the frame.  A block that runs at most once per run of the scope around it
+     * hands its captured variables to that scope, so it needs no Environment of its own.  Any other scope keeps
+     * its captured variables in its Environment, in declaration order, followed by those merged into it in the
+     * order their blocks ended.
+     */
+    private Scope endScope() {
+        Scope scope = scopes.pop();
+        checkVarUsage(scope.variables);
+
+        List<VarState> captured = new ArrayList<>();
+        for (VarState state : scope.variables.values()) {
+            if (state.isCaptured) {
+                captured.add(state);
+            } else if (state.statement != null) {
+                place(state.statement, new VarSlot(VarSlot.FRAME, state.slot));
+            }
+        }
+        captured.addAll(scope.merged);
+
+        Scope enclosing = scopes.isEmpty() ? null : scopes.peek();
+        if (scope.isBlock && enclosing != null && enclosing.frame == scope.frame && enclosing.loops == scope.loops) {
+            // each declaration has a slot of its own there, so names the block shadows stay apart.
+            enclosing.merged.addAll(captured);
+            enclosing.uses.addAll(scope.uses);
+            nextSlot = scope.firstSlot;
+            return scope;
+        }
+
+        for (VarState state : captured) {
+            state.environmentSlot = scope.environmentSize++;
+            if (state.statement != null) place(state.statement, new VarSlot(0, state.environmentSlot));
+        }
+
+        for (Use use : scope.uses) {
+            VarSlot slot = locate(use);
+            if (use.isSuperReceiver) {
+                ((Expr.Super)use.expr).thisSlot = slot;
+            } else {
+                interpreter.resolve(use.expr, slot.depth, slot.index);
+            }
+        }
+
+        // the scope's frame slots are free for whatever comes after it.
+        nextSlot = scope.firstSlot;
+        return scope;
+    }
+
+    private int allocate() {
+        int slot = nextSlot++;
+        currentFrame.size = Math.max(currentFrame.size, nextSlot);
+        return slot;
+    }
+
+    private static void place(Stmt statement, VarSlot slot) {
+        if (statement instanceof Stmt.Var) {
+            ((Stmt.Var)statement).slot = slot;
+        } else if (statement instanceof Stmt.Function) {
+            ((Stmt.Function)statement).slot = slot;
+        } else if (statement instanceof Stmt.Class) {
+            ((Stmt.Class)statement).slot = slot;
+        }
     }
 
     private void declare(Token name) {
+        declare(name, null);
+    }
+
+    private void declare(Token name, Stmt statement) {
         if (scopes.isEmpty()) return;
 
-        Map<String, VarState> scope = scopes.peek();
+        Map<String, VarState> scope = scopes.peek().variables;
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Cannot re-declare variable '" + name.lexeme + "' in this scope.");
+            error(name, "Cannot re-declare variable '" + name.lexeme + "' in this scope.");
         }
-        VarState state = new VarState(VarLifecycle.DECLARED, name);
+        VarState state = new VarState(VarLifecycle.DECLARED, name, allocate());
+        state.statement = statement;
         scope.put(name.lexeme, state);
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
 
-        Map<String, VarState> scope = scopes.peek();
+        Map<String, VarState> scope = scopes.peek().variables;
         VarState state = scope.get(name.lexeme);
         state.status = VarLifecycle.DEFINED;
 
@@ -112,11 +315,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         for (Entry<String, VarState> entry : scope.entrySet()) {
             VarState state = entry.getValue();
             if (state.status != VarLifecycle.USED && !isClassKeyword(entry.getKey())) {
-                Lox.warning(state.declaration, "Variable unused.");
+                warning(state.declaration, "Variable unused.");
             }
         }
     }
 
+    private void error(Token token, String message) {
+        if (isReporting) Lox.error(token, message);
+    }
+
+    private void warning(Token token, String message) {
+        if (isReporting) Lox.warning(token, message);
+    }
+
     /** returns true if identifier is "this" or "super" */
     private Boolean isClassKeyword(String identifier) {
         return Arrays.asList("this", "super").contains(identifier);
@@ -124,9 +335,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        beginScope(true);
         resolve(stmt.statements);
-        endScope();
+        stmt.environmentSize = endScope().environmentSize;
+        if (scopes.isEmpty()) interpreter.reserveFrame(currentFrame.size);
         return null;
     }
 
@@ -138,7 +350,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
         resolveFunction(stmt, FunctionType.FUNCTION);
         return null;
@@ -173,12 +385,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            error(stmt.keyword, "Can't return from top-level code.");
         }
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                error(stmt.keyword, "Can't return a value from an initializer.");
             }
+            // nothing is left to do in the function once such a call returns, so it can be made as a tail call.
+            stmt.isTailCall = stmt.value instanceof Expr.Call && currentFunction != FunctionType.INITIALIZER;
             resolve(stmt.value);
         }
         return null;
@@ -186,7 +400,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -197,7 +411,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
         resolve(stmt.condition);
+        loops++;
         resolve(stmt.body);
+        loops--;
         return null;
     }
 
@@ -271,11 +487,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty()) {
-            Map<String, VarState> scope = scopes.peek();
+            Map<String, VarState> scope = scopes.peek().variables;
             VarState state = scope.get(expr.name.lexeme);
             if (state != null) {
                 if (state.status == VarLifecycle.DECLARED) {
-                    Lox.error(expr.name, "Cannot read local variable in its own initializer.");
+                    error(expr.name, "Cannot read local variable in its own initializer.");
                 }
                 state.status = VarLifecycle.USED;
                 scope.put(expr.name.lexeme, state);
@@ -295,31 +511,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitClassStmt(Stmt.Class stmt) {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         if (stmt.superclass != null) {
             if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+                error(stmt.superclass.name, "A class can't inherit from itself.");
             } else {
                 currentClass = ClassType.SUBCLASS;
                 resolve(stmt.superclass);
 
-                // create scope with bound "super" for later calls.
-                beginScope();
-                scopes.peek().put("super", new VarState(VarLifecycle.DEFINED, stmt.name));
+                beginSuperScope(stmt.name);
             }
         }
 
-        beginScope();
-        scopes.peek().put("this", new VarState(VarLifecycle.DEFINED, stmt.name));
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = method.name.lexeme.equals("init") ?
                 FunctionType.INITIALIZER :
                 FunctionType.METHOD;
             resolveFunction(method, declaration);
         }
-        endScope();
 
         if (stmt.superclass != null) endScope();
 
@@ -343,7 +554,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            error(expr.keyword, "Can't use 'this' outside of a class.");
         }
         resolveLocal(expr, expr.keyword);
         return null;
@@ -352,11 +563,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+            error(expr.keyword, "Can't use 'super' in a class with no superclass.");
         }
         resolveLocal(expr, expr.keyword);
+        // the method found is bound to the current "this", which is looked up like any other use of it.
+        resolveLocal(expr, new Token(TokenType.THIS, "this", null, expr.keyword.line), true);
         return null;
     }
     
@@ -1,66 +1,233 @@
 package com.craftinginterpreters.lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Turns source text into tokens, one at a time as the Parser asks for them.
+ * The source is read in chunks into a window that only has to hold the tokens still in use, so the whole source
+ * and a list of all its tokens are never in memory at once.
+ * scan() only finds where the next token is; its lexeme and literal are made from the window when asked for.
+ * See TokenBuffer.
+ */
 class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private static final int CHUNK_SIZE = 8192;
+
+    private final Reader source;
+    private final Symbols symbols;
+    // buffer[0, limit) holds the part of the source read so far that is still needed, starting at offset base of
+    // the source.  start and current index the buffer; token offsets are offsets in the whole source.
+    private char[] buffer = new char[CHUNK_SIZE];
+    private int base = 0;
+    private int limit = 0;
+    private boolean isDrained = false;
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    // characters from this offset on are kept for text() and literal().
+    private int kept = 0;
+    // the type of the token scanToken() found, if any, and of the last one handed out.
+    private TokenType scanned = null;
+    private TokenType lastType = null;
+
+    // where the token scan() returned last is.  Identifiers also have their symbol, which names are made of.
+    int tokenOffset;
+    int tokenLength;
+    int tokenLine;
+    String tokenSymbol;
 
-    private static final Map<String, TokenType> keywords;
+    // 10^0 through 10^22, the powers of ten a double holds exactly.
+    private static final double[] POWERS_OF_TEN = new double[23];
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",      TokenType.AND);
-        keywords.put("class",    TokenType.CLASS);
-        keywords.put("else",     TokenType.ELSE);
-        keywords.put("false",    TokenType.FALSE);
-        keywords.put("for",      TokenType.FOR);
-        keywords.put("fun",      TokenType.FUN);
-        keywords.put("if",       TokenType.IF);
-        keywords.put("nil",      TokenType.NIL);
-        keywords.put("or",       TokenType.OR);
-        keywords.put("print",    TokenType.PRINT);
-        keywords.put("return",   TokenType.RETURN);
-        keywords.put("super",    TokenType.SUPER);
-        keywords.put("this",     TokenType.THIS);
-        keywords.put("true",     TokenType.TRUE);
-        keywords.put("var",      TokenType.VAR);
-        keywords.put("while",    TokenType.WHILE);
-        keywords.put("break",    TokenType.BREAK);
-        keywords.put("continue", TokenType.CONTINUE);
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
     }
 
-    Scanner(String source) {
+    Scanner(String source, Symbols symbols) {
+        this(new StringReader(source), symbols);
+    }
+
+    /** Scans source that starts on the given line of a larger one. */
+    Scanner(String source, int line, Symbols symbols) {
+        this(source, symbols);
+        this.line = line;
+    }
+
+    Scanner(Reader source, Symbols symbols) {
         this.source = source;
+        this.symbols = symbols;
     }
 
-    List<Token> scanTokens() {
-        while (!isAtEnd()) {
+    /**
+     * Scans the next token, leaving where it is in tokenOffset, tokenLength and tokenLine.
+     * Once the source runs out, this returns EOF.
+     * @throws UncheckedIOException if reading the source fails.
+     */
+    TokenType scan() {
+        while (scanned == null) {
+            if (isAtEnd()) return end();
             // we are at the beginning of the next lexeme.
             start = current;
             scanToken();
         }
 
-        if (Lox.isInteractive()) {
+        TokenType type = scanned;
+        scanned = null;
+        lastType = type;
+        return type;
+    }
+
+    private TokenType end() {
+        tokenOffset = base + current;
+        tokenLength = 0;
+        tokenLine = line;
+        tokenSymbol = null;
+
+        if (Lox.isInteractive() && lastType != null && lastType != TokenType.SEMICOLON) {
             // if user did not enter a terminating semicolon,
             // add a semicolon to the token string to allow REPL to parse the statement.
-            if (tokens.get(tokens.size() - 1).type != TokenType.SEMICOLON) {
-                tokens.add(new Token(TokenType.SEMICOLON, ";", null, line));
+            lastType = TokenType.SEMICOLON;
+            return TokenType.SEMICOLON;
+        }
+
+        lastType = TokenType.EOF;
+        return TokenType.EOF;
+    }
+
+    /** Lets the characters before offset go.  Tokens from offset on can still be made into text. */
+    void keepFrom(int offset) {
+        kept = offset;
+    }
+
+    /** Returns the lexeme of a token this scanner found at offset. */
+    String text(int offset, int length) {
+        return new String(buffer, offset - base, length);
+    }
+
+    /** Returns the literal value of a string or number token this scanner found at offset, or null for others. */
+    Object literal(TokenType type, int offset, int length) {
+        switch (type) {
+            case STRING:
+                // Trim off the enclosing quote marks.
+                return stringValue(offset - base + 1, offset - base + length - 1);
+            case NUMBER:
+                return numberValue(offset - base, offset - base + length);
+            default:
+                return null;
+        }
+    }
+
+    // the characters of buffer[from, to) with escape sequences replaced by what they stand for.
+    private String stringValue(int from, int to) {
+        int i = from;
+        while (i < to && buffer[i] != '\\') i++;
+        if (i == to) return new String(buffer, from, to - from);
+
+        StringBuilder value = new StringBuilder(to - from);
+        value.append(buffer, from, i - from);
+        for (; i < to; i++) {
+            char c = buffer[i];
+            if (c == '\\' && i + 1 < to) {
+                c = buffer[++i];
+                char escaped = unescape(c);
+                // \b is passed through as is, and so are bad escapes, which scan() reported.
+                if (escaped == '\0' || c == 'b') {
+                    value.append('\\').append(c);
+                } else {
+                    value.append(escaped);
+                }
+            } else {
+                value.append(c);
             }
         }
+        return value.toString();
+    }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+    // the character the escape sequence \c stands for, or '\0' if there is no such escape.
+    private static char unescape(char c) {
+        switch (c) {
+            case 'b': return 'b';
+            case 't': return '\t';
+            case 'n': return '\n';
+            case 'f': return '\f';
+            case 'r': return '\r';
+            case '"': return '"';
+            case '\'': return '\'';
+            case '\\': return '\\';
+            default: return '\0';
+        }
+    }
+
+    /**
+     * Reads the number literal in buffer[from, to) in place.  When its digits and its decimal places both fit in a
+     * double exactly, one division gives the correctly rounded value; anything longer goes to Double.parseDouble().
+     */
+    private double numberValue(int from, int to) {
+        if (to - from <= 17) {
+            long digits = 0;
+            int decimals = 0;
+            boolean isFraction = false;
+            for (int i = from; i < to; i++) {
+                char c = buffer[i];
+                if (c == '.') {
+                    isFraction = true;
+                    continue;
+                }
+                digits = digits * 10 + (c - '0');
+                if (isFraction) decimals++;
+            }
+            if (digits < (1L << 53)) return digits / POWERS_OF_TEN[decimals];
+        }
+        return Double.parseDouble(new String(buffer, from, to - from));
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return !isAvailable(current);
+    }
+
+    /**
+     * Reads ahead until the buffer holds the character at index, returning false if the source ends first.
+     * Reading may move the buffer's contents down, so callers index it with start and current afterwards.
+     */
+    private boolean isAvailable(int index) {
+        while (index >= limit) {
+            if (isDrained) return false;
+            index -= fill();
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next chunk of the source.  Characters no token in use needs any more are dropped to make room,
+     * so the buffer only grows when the tokens in use don't fit.
+     * @return how far the characters kept moved down.
+     */
+    private int fill() {
+        int shift = Math.min(start, kept - base);
+        if (shift > 0) {
+            System.arraycopy(buffer, shift, buffer, 0, limit - shift);
+            base += shift;
+            limit -= shift;
+            current -= shift;
+            start -= shift;
+        }
+        if (limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        try {
+            int read = source.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                isDrained = true;
+            } else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return shift;
     }
 
     private void scanToken() {
@@ -174,11 +341,62 @@ class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        // addToken(TokenType.IDENTIFIER);
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = TokenType.IDENTIFIER;
+        TokenType type = keywordType();
         addToken(type);
+        // names are interned, so the runtime can look them up by identity.  Keywords have fixed lexemes.
+        if (type == TokenType.IDENTIFIER) tokenSymbol = symbols.intern(buffer, start, current);
+    }
+
+    // tells keywords from identifiers straight from the source, by first letter(s) and then the rest.
+    private TokenType keywordType() {
+        switch (buffer[start]) {
+            case 'a': return checkKeyword(1, "nd", TokenType.AND);
+            case 'b': return checkKeyword(1, "reak", TokenType.BREAK);
+            case 'c':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'l': return checkKeyword(2, "ass", TokenType.CLASS);
+                        case 'o': return checkKeyword(2, "ntinue", TokenType.CONTINUE);
+                    }
+                }
+                break;
+            case 'e': return checkKeyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'a': return checkKeyword(2, "lse", TokenType.FALSE);
+                        case 'o': return checkKeyword(2, "r", TokenType.FOR);
+                        case 'u': return checkKeyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", TokenType.IF);
+            case 'n': return checkKeyword(1, "il", TokenType.NIL);
+            case 'o': return checkKeyword(1, "r", TokenType.OR);
+            case 'p': return checkKeyword(1, "rint", TokenType.PRINT);
+            case 'r': return checkKeyword(1, "eturn", TokenType.RETURN);
+            case 's': return checkKeyword(1, "uper", TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (buffer[start + 1]) {
+                        case 'h': return checkKeyword(2, "is", TokenType.THIS);
+                        case 'r': return checkKeyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v': return checkKeyword(1, "ar", TokenType.VAR);
+            case 'w': return checkKeyword(1, "hile", TokenType.WHILE);
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    // returns type if the rest of the lexeme, from offset on, is rest.
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+        for (int i = 0; i < rest.length(); i++) {
+            if (buffer[start + offset + i] != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 
     private boolean isAlpha(char c) {
@@ -192,7 +410,12 @@ class Scanner {
     }
 
     private void number() {
-        if (peek() == '.') advance();
+        // a leading dot, as in ".5", has been consumed already.
+        int dots = buffer[start] == '.' ? 1 : 0;
+        if (peek() == '.') {
+            advance();
+            dots++;
+        }
 
         while (isDigit(peek())) advance();
 
@@ -200,11 +423,16 @@ class Scanner {
         if (peek() == '.' && isDigit(peekNext())) {
             // Consume the dot character.
             advance();
+            dots++;
         }
 
         while (isDigit(peek())) advance();
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        if (dots > 1) {
+            Lox.error(line, "Number literal has more than one '.'.");
+            return;
+        }
+        addToken(TokenType.NUMBER);
     }
 
     private boolean isDigit(char c) {
@@ -215,9 +443,13 @@ class Scanner {
         // tracks if current char is part of an escape sequence.  
         // used to prevent escaped terminators like "\"" from prematurely ending the string scan.
         boolean isEscapeActive = false;
+        // the value is only made when the Parser asks for it, but the first bad escape sequence is reported now.
+        char badEscape = '\0';
         while ((peek() != terminator || isEscapeActive) && !isAtEnd()) {
-            if (peek() == '\n') line++;
-            isEscapeActive = !isEscapeActive && peek() == '\\'; // only flip to true if is false and we see a \
+            char c = peek();
+            if (c == '\n') line++;
+            if (isEscapeActive && badEscape == '\0' && unescape(c) == '\0') badEscape = c;
+            isEscapeActive = !isEscapeActive && c == '\\'; // only flip to true if is false and we see a \
             advance();
         }
 
@@ -229,54 +461,46 @@ class Scanner {
         // consume the closing quote mark.
         advance();
 
-        // Trim off the enclosing quote marks.
-        String value = source.substring(start + 1, current - 1);
-
-        // escape any escape sequences present.
-        try {
-            value = Util.unescapeString(value);
-        } catch (Exception e) {
-            Lox.error(line, e.getMessage());
-        }
-        addToken(TokenType.STRING, value);
+        if (badEscape != '\0') Lox.error(line, "Unrecognized escape sequence \\" + badEscape);
+        addToken(TokenType.STRING);
     }
 
     // looks ahead one character, returning the value seen.
     // returns EOF if encountered.
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     // looks ahead two characters, returning the value seen.
     // returns EOF if encountered while looking ahead.
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (!isAvailable(current + 1)) return '\0';
+        return buffer[current + 1];
     }
 
     // if current character matches expected, returns true and consumes current.  else returns false.
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
 
         current++;
         return true;
     }
 
     // advances current character pointer, returning the old value pointed at.
+    // returns EOF, without advancing, at the end of the source.
     private char advance() {
-        return source.charAt(current++);
+        if (isAtEnd()) return '\0';
+        return buffer[current++];
     }
 
-    // records a token with no literal value.
+    // records where the token just scanned is.
     private void addToken(TokenType type) {
-        addToken(type, null);
-    }
-
-    // records a token with a literal value attached, such as a string.
-    private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        scanned = type;
+        tokenOffset = base + start;
+        tokenLength = current - start;
+        tokenLine = line;
+        tokenSymbol = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,47 @@
+package com.craftinginterpreters.lox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The field layout shared by every LoxInstance of one class that was given the same fields in the same order.
+ * A field's value lives in LoxInstance.fields at the slot its shape maps the name to.
+ * Adding a field moves an instance along a transition to the next shape, so instances built the same way end up
+ * sharing one shape, and that shape identifies both the layout and the class.
+ * Field names are interned symbols (see Symbols), so the tables are keyed by identity.
+ */
+final class Shape {
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new IdentityHashMap<>();
+
+    /** Creates the empty root shape of a class. */
+    Shape() {
+        this(new IdentityHashMap<>());
+    }
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+    }
+
+    int size() {
+        return slots.size();
+    }
+
+    /** Returns the slot holding the named field, or -1 if instances of this shape do not have it. */
+    int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /** Returns the shape reached by adding the named field, which goes in slot size(). */
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new IdentityHashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
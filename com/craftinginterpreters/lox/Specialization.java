@@ -0,0 +1,21 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Type feedback recorded on an AST node by the Interpreter.
+ * A node starts out UNINITIALIZED, specializes on the operand types it sees the first time it runs,
+ * and falls back to GENERIC for good the first time a specialization's guard fails.
+ */
+public enum Specialization {
+    UNINITIALIZED,
+    /** operands are all numbers. */
+    NUMBER,
+    /** operands are all strings. */
+    STRING,
+    /** left operand is a boolean. */
+    BOOLEAN,
+    /** callee is a LoxFunction. */
+    FUNCTION,
+    /** callee is a LoxClass. */
+    CLASS,
+    GENERIC
+}
@@ -28,6 +28,8 @@ public abstract class Stmt {
 		}
 
 		public final List<Stmt> statements;
+
+		int environmentSize;
 	}
 	public static class Class extends Stmt {
 		Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
@@ -44,6 +46,8 @@ public abstract class Stmt {
 		public final Token name;
 		public final Expr.Variable superclass;
 		public final List<Stmt.Function> methods;
+
+		VarSlot slot;
 	}
 	public static class Expression extends Stmt {
 		Expression(Expr expression) {
@@ -76,6 +80,11 @@ public abstract class Stmt {
 		public final List<Stmt> body;
 		public final Boolean isStatic;
 		public final Boolean isAutoInvoke;
+
+		FunctionProfile profile = new FunctionProfile();
+		FrameLayout layout = new FrameLayout();
+		LazyBody lazyBody;
+		VarSlot slot;
 	}
 	public static class IfElse extends Stmt {
 		IfElse(List<Stmt.If> ifBranches, Stmt elseBranch) {
@@ -130,6 +139,8 @@ public abstract class Stmt {
 
 		public final Token keyword;
 		public final Expr value;
+
+		boolean isTailCall;
 	}
 	public static class Var extends Stmt {
 		Var(Token name, Expr initializer) {
@@ -144,6 +155,8 @@ public abstract class Stmt {
 
 		public final Token name;
 		public final Expr initializer;
+
+		VarSlot slot;
 	}
 	public static class While extends Stmt {
 		While(Expr condition, Stmt body) {
@@ -0,0 +1,60 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Table of interned identifier names.
+ * The Scanner looks names up straight from the source, so a name seen before costs no new String, and every
+ * occurrence of a name shares one instance.  New names are canonicalized with String.intern(), which makes them
+ * the same instances as names written as literals in Java code, such as "init" and "this".
+ * That lets the runtime key its tables of names by identity.
+ * Each Interpreter has a table of its own, which holds the names of the sources scanned for it and goes away with
+ * it.  Like the Interpreter, a table is not thread-safe: only the thread running the interpreter may use it.
+ */
+final class Symbols {
+    private String[] table = new String[1024];
+    private int count = 0;
+
+    /** Returns the interned symbol for source[start, end). */
+    String intern(char[] source, int start, int end) {
+        int length = end - start;
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source[i];
+        }
+
+        // linear probing.  The hash is String.hashCode(), so growing the table can rehash symbols from their own.
+        int mask = table.length - 1;
+        int index = spread(hash) & mask;
+        for (String symbol = table[index]; symbol != null; symbol = table[index]) {
+            if (symbol.length() == length && matches(symbol, source, start)) return symbol;
+            index = (index + 1) & mask;
+        }
+
+        String symbol = new String(source, start, length).intern();
+        table[index] = symbol;
+        if (++count * 2 > table.length) grow();
+        return symbol;
+    }
+
+    private boolean matches(String symbol, char[] source, int start) {
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != source[start + i]) return false;
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private void grow() {
+        String[] old = table;
+        table = new String[old.length * 2];
+        int mask = table.length - 1;
+        for (String symbol : old) {
+            if (symbol == null) continue;
+            int index = spread(symbol.hashCode()) & mask;
+            while (table[index] != null) index = (index + 1) & mask;
+            table[index] = symbol;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * The tokens the Parser is looking at: the last one it consumed and the next one.
+ * They are kept as parallel arrays of where each token is in the source, not as Token objects, so deciding what to
+ * parse only ever looks at a type.  A Token is made only for a token that ends up in the AST or in an error
+ * message, and punctuation and keywords get their lexemes from a table instead of from the source.
+ */
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+    private static final String[] FIXED_LEXEMES = new String[TYPES.length];
+
+    static {
+        FIXED_LEXEMES[TokenType.LEFT_PAREN.ordinal()] = "(";
+        FIXED_LEXEMES[TokenType.RIGHT_PAREN.ordinal()] = ")";
+        FIXED_LEXEMES[TokenType.LEFT_BRACE.ordinal()] = "{";
+        FIXED_LEXEMES[TokenType.RIGHT_BRACE.ordinal()] = "}";
+        FIXED_LEXEMES[TokenType.COMMA.ordinal()] = ",";
+        FIXED_LEXEMES[TokenType.DOT.ordinal()] = ".";
+        FIXED_LEXEMES[TokenType.SEMICOLON.ordinal()] = ";";
+        FIXED_LEXEMES[TokenType.SLASH.ordinal()] = "/";
+        FIXED_LEXEMES[TokenType.STAR.ordinal()] = "*";
+        FIXED_LEXEMES[TokenType.QUESTION_MARK.ordinal()] = "?";
+        FIXED_LEXEMES[TokenType.COLON.ordinal()] = ":";
+        FIXED_LEXEMES[TokenType.BANG.ordinal()] = "!";
+        FIXED_LEXEMES[TokenType.BANG_EQUAL.ordinal()] = "!=";
+        FIXED_LEXEMES[TokenType.EQUAL.ordinal()] = "=";
+        FIXED_LEXEMES[TokenType.EQUAL_EQUAL.ordinal()] = "==";
+        FIXED_LEXEMES[TokenType.GREATER.ordinal()] = ">";
+        FIXED_LEXEMES[TokenType.GREATER_EQUAL.ordinal()] = ">=";
+        FIXED_LEXEMES[TokenType.LESS.ordinal()] = "<";
+        FIXED_LEXEMES[TokenType.LESS_EQUAL.ordinal()] = "<=";
+        FIXED_LEXEMES[TokenType.MINUS.ordinal()] = "-";
+        FIXED_LEXEMES[TokenType.MINUS_MINUS.ordinal()] = "--";
+        FIXED_LEXEMES[TokenType.MINUS_EQUAL.ordinal()] = "-=";
+        FIXED_LEXEMES[TokenType.PLUS.ordinal()] = "+";
+        FIXED_LEXEMES[TokenType.PLUS_PLUS.ordinal()] = "++";
+        FIXED_LEXEMES[TokenType.PLUS_EQUAL.ordinal()] = "+=";
+        FIXED_LEXEMES[TokenType.AND.ordinal()] = "and";
+        FIXED_LEXEMES[TokenType.CLASS.ordinal()] = "class";
+        FIXED_LEXEMES[TokenType.ELSE.ordinal()] = "else";
+        FIXED_LEXEMES[TokenType.FALSE.ordinal()] = "false";
+        FIXED_LEXEMES[TokenType.FOR.ordinal()] = "for";
+        FIXED_LEXEMES[TokenType.FUN.ordinal()] = "fun";
+        FIXED_LEXEMES[TokenType.IF.ordinal()] = "if";
+        FIXED_LEXEMES[TokenType.NIL.ordinal()] = "nil";
+        FIXED_LEXEMES[TokenType.OR.ordinal()] = "or";
+        FIXED_LEXEMES[TokenType.PRINT.ordinal()] = "print";
+        FIXED_LEXEMES[TokenType.RETURN.ordinal()] = "return";
+        FIXED_LEXEMES[TokenType.SUPER.ordinal()] = "super";
+        FIXED_LEXEMES[TokenType.THIS.ordinal()] = "this";
+        FIXED_LEXEMES[TokenType.TRUE.ordinal()] = "true";
+        FIXED_LEXEMES[TokenType.VAR.ordinal()] = "var";
+        FIXED_LEXEMES[TokenType.WHILE.ordinal()] = "while";
+        FIXED_LEXEMES[TokenType.BREAK.ordinal()] = "break";
+        FIXED_LEXEMES[TokenType.CONTINUE.ordinal()] = "continue";
+        FIXED_LEXEMES[TokenType.EOF.ordinal()] = "";
+    }
+
+    private final Scanner scanner;
+
+    // slot next holds the next token and the other slot the last one consumed, if there is one yet.
+    private final int[] types = new int[2];
+    private final int[] offsets = new int[2];
+    private final int[] lengths = new int[2];
+    private final int[] lines = new int[2];
+    private final String[] symbols = new String[2];
+    private final Token[] tokens = new Token[2];
+    private int next = 0;
+    private boolean hasPrevious = false;
+    // while skipBlock() runs, the offset its source starts at.
+    private int pinned = -1;
+
+    TokenBuffer(Scanner scanner) {
+        this.scanner = scanner;
+        scan(next);
+    }
+
+    TokenType peekType() {
+        return TYPES[types[next]];
+    }
+
+    TokenType previousType() {
+        return hasPrevious ? TYPES[types[1 - next]] : null;
+    }
+
+    /** Moves on to the next token, scanning the one after it. */
+    void advance() {
+        next = 1 - next;
+        hasPrevious = true;
+        // the source of the token just consumed must stay around until it's replaced.
+        scanner.keepFrom(pinned >= 0 ? pinned : offsets[1 - next]);
+        scan(next);
+    }
+
+    int peekLine() {
+        return lines[next];
+    }
+
+    /**
+     * Skips the block the next token opens, up to and including the "}" that closes it, and returns its source.
+     * Only token types are looked at on the way.  Returns null if the source ends first.
+     */
+    String skipBlock() {
+        int from = offsets[next];
+        pinned = from;
+        try {
+            int depth = 0;
+            do {
+                switch (peekType()) {
+                    case LEFT_BRACE: depth++; break;
+                    case RIGHT_BRACE: depth--; break;
+                    case EOF: return null;
+                    default: break;
+                }
+                advance();
+            } while (depth > 0);
+
+            int previous = 1 - next;
+            return scanner.text(from, offsets[previous] + lengths[previous] - from);
+        } finally {
+            pinned = -1;
+        }
+    }
+
+    Token peek() {
+        return token(next);
+    }
+
+    Token previous() {
+        return hasPrevious ? token(1 - next) : null;
+    }
+
+    private void scan(int slot) {
+        types[slot] = scanner.scan().ordinal();
+        offsets[slot] = scanner.tokenOffset;
+        lengths[slot] = scanner.tokenLength;
+        lines[slot] = scanner.tokenLine;
+        symbols[slot] = scanner.tokenSymbol;
+        tokens[slot] = null;
+    }
+
+    private Token token(int slot) {
+        if (tokens[slot] == null) {
+            TokenType type = TYPES[types[slot]];
+            String lexeme = symbols[slot];
+            if (lexeme == null) lexeme = FIXED_LEXEMES[types[slot]];
+            if (lexeme == null) lexeme = scanner.text(offsets[slot], lengths[slot]);
+            Object literal = scanner.literal(type, offsets[slot], lengths[slot]);
+            tokens[slot] = new Token(type, lexeme, literal, lines[slot]);
+        }
+        return tokens[slot];
+    }
+}
@@ -0,0 +1,16 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Thrown by the Interpreter's unboxed evaluate methods when an expression produces a value of another type.
+ * Carries the value, so the caller can carry on with it without evaluating the expression again.
+ */
+class UnexpectedValue extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    final Object value;
+
+    UnexpectedValue(Object value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
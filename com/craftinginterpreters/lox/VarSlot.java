@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * Resolved location of a local variable.
+ * depth is the number of scopes between the use and the declaration; index is the variable's slot in that scope.
+ * Locals no closure captures have a depth of FRAME, and index is their slot in the current call's frame.
+ */
+public class VarSlot {
+    static final int FRAME = -1;
+
+    public final int depth;
+    public final int index;
+
+    public VarSlot(int depth, int index) {
+        this.depth = depth;
+        this.index = index;
+    }
+}
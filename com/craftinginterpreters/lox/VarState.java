@@ -3,9 +3,18 @@ package com.craftinginterpreters.lox;
 public class VarState {
     public VarLifecycle status;
     public final Token declaration;
+    /** slot in the call frame. */
+    public final int slot;
+    /** set when a closure refers to the variable, which then has to live in an Environment. */
+    public boolean isCaptured = false;
+    /** slot in its scope's Environment, given to captured variables once the scope ends. */
+    int environmentSlot = -1;
+    /** the statement declaring the variable, told where it lives once its scope ends.  Null for parameters. */
+    Stmt statement = null;
 
-    public VarState(VarLifecycle status, Token declaration) {
+    public VarState(VarLifecycle status, Token declaration, int slot) {
         this.status = status;
         this.declaration = declaration;
+        this.slot = slot;
     }
 }
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox.vm;
+
+/** A method paired with the receiver it was accessed on.  Static methods are bound to a nil receiver. */
+final class BoundMethod {
+    final Object receiver;
+    final Closure method;
+
+    BoundMethod(Object receiver, Closure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox.vm;
+
+/** An active call: the closure being run, where it is in its code, and where its stack window starts. */
+final class CallFrame {
+    Closure closure;
+    int ip;
+    int base;
+}
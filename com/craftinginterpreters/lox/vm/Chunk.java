@@ -0,0 +1,81 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A sequence of compiled instructions with its constant pool and the source line of every code word. */
+final class Chunk {
+    int[] code = new int[16];
+    int[] lines = new int[16];
+    int count = 0;
+    Object[] constants;
+    /** every loop in the code, inner loops before the loops that enclose them. */
+    LoopRange[] loops;
+
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new HashMap<>();
+    private final List<LoopRange> loopList = new ArrayList<>();
+
+    /** The code of a while loop, for a break or continue in a function called from its body. */
+    static final class LoopRange {
+        /** where the condition starts, which is also where continue jumps to. */
+        final int start;
+        /** the end of the body, exclusive. */
+        final int end;
+        /** where break jumps to. */
+        final int exit;
+        /** the number of locals in scope outside the loop. */
+        final int locals;
+
+        LoopRange(int start, int end, int exit, int locals) {
+            this.start = start;
+            this.end = end;
+            this.exit = exit;
+            this.locals = locals;
+        }
+    }
+
+    void write(int word, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = word;
+        lines[count] = line;
+        count++;
+    }
+
+    /** Adds value to the constant pool, reusing the existing entry for an equal value. */
+    int addConstant(Object value) {
+        Integer index = constantIndexes.get(value);
+        if (index != null) return index;
+
+        constantList.add(value);
+        constantIndexes.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+
+    void addLoop(LoopRange loop) {
+        loopList.add(loop);
+    }
+
+    /** Returns the innermost loop whose body contains ip, or null. */
+    LoopRange loopAt(int ip) {
+        for (LoopRange loop : loops) {
+            if (loop.start <= ip && ip < loop.end) return loop;
+        }
+        return null;
+    }
+
+    /** Trims the code to size and freezes the constant pool.  Called once compilation is done. */
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+        loops = loopList.toArray(new LoopRange[0]);
+        constantIndexes.clear();
+    }
+}
@@ -0,0 +1,17 @@
+package com.craftinginterpreters.lox.vm;
+
+/** Runtime function value: a prototype plus the variables it captured. */
+final class Closure {
+    final Prototype function;
+    final Upvalue[] upvalues;
+
+    Closure(Prototype function) {
+        this.function = function;
+        this.upvalues = new Upvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
@@ -0,0 +1,705 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.craftinginterpreters.lox.Expr;
+import com.craftinginterpreters.lox.Lox;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Token;
+import com.craftinginterpreters.lox.TokenType;
+
+/**
+ * Compiles a resolved Lox program into bytecode for the VM.
+ *
+ * The compiler runs after the Resolver, so it assumes the static errors the Resolver reports
+ * (bad returns, "this" outside a class, reading a local in its own initializer, ...) have already stopped the run.
+ * Locals live in VM stack slots; variables captured by closures are reached through upvalues.
+ */
+final class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private enum FunctionKind {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class UpvalueRef {
+        final boolean isLocal;
+        final int index;
+
+        UpvalueRef(boolean isLocal, int index) {
+            this.isLocal = isLocal;
+            this.index = index;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int start;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int start, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.start = start;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final Prototype function;
+        final FunctionKind kind;
+        final List<Local> locals = new ArrayList<>();
+        final List<UpvalueRef> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, Prototype function, FunctionKind kind) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.kind = kind;
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current;
+    private int line = 0;
+    private boolean hadError = false;
+
+    Compiler(VM vm) {
+        this.vm = vm;
+    }
+
+    /**
+     * Compiles a program into a script function.
+     * If echo is true, the value of the final statement is echoed the way the REPL does.
+     * @return the compiled script, or null if compilation reported errors.
+     */
+    Prototype compile(List<Stmt> statements, boolean echo) {
+        current = new FunctionState(null, new Prototype("script"), FunctionKind.SCRIPT);
+        // slot 0 holds the script's own closure.
+        current.locals.add(new Local("", 0));
+
+        int last = statements.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            Stmt statement = statements.get(i);
+            if (echo && i == last) {
+                echo(statement);
+            } else {
+                compile(statement);
+            }
+        }
+        emitReturn();
+
+        Prototype script = endFunction();
+        return hadError ? null : script;
+    }
+
+    private void echo(Stmt statement) {
+        if (statement instanceof Stmt.Expression) {
+            compile(((Stmt.Expression)statement).expression);
+            emit(OpCode.ECHO);
+        } else {
+            // all other statement types evaluate to nil.
+            compile(statement);
+            emit(OpCode.ECHO_NIL);
+        }
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private Chunk chunk() {
+        return current.function.chunk;
+    }
+
+    private Prototype endFunction() {
+        Prototype function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    // ---- code emission ----
+
+    private void emit(int word) {
+        chunk().write(word, line);
+    }
+
+    private void emit(int op, int operand) {
+        emit(op);
+        emit(operand);
+    }
+
+    private int constant(Object value) {
+        return chunk().addConstant(value);
+    }
+
+    private void emitReturn() {
+        if (current.kind == FunctionKind.INITIALIZER) {
+            emit(OpCode.GET_LOCAL, 0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+
+    /** Emits a forward jump with a placeholder offset and returns the offset's position for patchJump(). */
+    private int emitJump(int op) {
+        emit(op, 0);
+        return chunk().count - 1;
+    }
+
+    private void patchJump(int offset) {
+        chunk().code[offset] = chunk().count - offset - 1;
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        emit(chunk().count - loopStart + 1);
+    }
+
+    private void error(Token token, String message) {
+        Lox.error(token, message);
+        hadError = true;
+    }
+
+    // ---- scopes and variables ----
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            emit(locals.get(locals.size() - 1).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    /** Pops the locals declared inside the loop body without forgetting them, for break and continue. */
+    private void discardLoopLocals(Loop loop) {
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1; i >= 0 && locals.get(i).depth > loop.scopeDepth; i--) {
+            emit(locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private boolean isGlobalScope() {
+        return current.kind == FunctionKind.SCRIPT && current.scopeDepth == 0;
+    }
+
+    private void addLocal(String name) {
+        current.locals.add(new Local(name, current.scopeDepth));
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private static int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, true, local);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, false, upvalue);
+
+        return -1;
+    }
+
+    private static int addUpvalue(FunctionState state, boolean isLocal, int index) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            UpvalueRef upvalue = state.upvalues.get(i);
+            if (upvalue.isLocal == isLocal && upvalue.index == index) return i;
+        }
+        state.upvalues.add(new UpvalueRef(isLocal, index));
+        return state.upvalues.size() - 1;
+    }
+
+    private void emitGetVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(OpCode.GET_LOCAL, arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(OpCode.GET_UPVALUE, arg);
+        } else {
+            emit(OpCode.GET_GLOBAL, vm.globalSlot(name));
+        }
+    }
+
+    private void emitSetVariable(String name) {
+        int arg = resolveLocal(current, name);
+        if (arg != -1) {
+            emit(OpCode.SET_LOCAL, arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(OpCode.SET_UPVALUE, arg);
+        } else {
+            emit(OpCode.SET_GLOBAL, vm.globalSlot(name));
+        }
+    }
+
+    // ---- functions ----
+
+    private void function(String name, List<Token> params, List<Stmt> body, FunctionKind kind, boolean isGetter) {
+        Prototype function = new Prototype(name);
+        function.arity = params.size();
+        function.isInitializer = kind == FunctionKind.INITIALIZER;
+        function.isGetter = isGetter;
+
+        current = new FunctionState(current, function, kind);
+        // slot 0 holds the receiver for methods and the closure itself for plain functions.
+        addLocal(kind == FunctionKind.METHOD || kind == FunctionKind.INITIALIZER ? "this" : "");
+        beginScope();
+        for (Token param : params) {
+            addLocal(param.lexeme);
+        }
+        for (Stmt statement : body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        List<UpvalueRef> upvalues = current.upvalues;
+        endFunction();
+
+        emit(OpCode.CLOSURE, constant(function));
+        for (UpvalueRef upvalue : upvalues) {
+            emit(upvalue.isLocal ? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+
+    // ---- statements ----
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        String name = stmt.name.lexeme;
+        int nameConstant = constant(name);
+        boolean isGlobal = isGlobalScope();
+
+        if (!isGlobal) addLocal(name);
+        emit(OpCode.CLASS, nameConstant);
+        if (isGlobal) emit(OpCode.DEFINE_GLOBAL, vm.globalSlot(name));
+
+        if (stmt.superclass != null) {
+            line = stmt.superclass.name.line;
+            emitGetVariable(stmt.superclass.name.lexeme);
+            // the superclass stays on the stack as the local "super", which methods capture.
+            beginScope();
+            addLocal("super");
+            emitGetVariable(name);
+            emit(OpCode.INHERIT);
+        }
+
+        emitGetVariable(name);
+        for (Stmt.Function method : stmt.methods) {
+            boolean isInitializer = method.name.lexeme.equals("init");
+            function(method.name.lexeme, method.params, method.body,
+                isInitializer ? FunctionKind.INITIALIZER : FunctionKind.METHOD, method.isAutoInvoke);
+            line = method.name.line;
+            // init() is treated specially and needs to stay with its instance methods.
+            emit(OpCode.METHOD, constant(method.name.lexeme));
+            emit(method.isStatic && !isInitializer ? 1 : 0);
+        }
+        emit(OpCode.POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        if (isGlobalScope()) {
+            function(stmt.name.lexeme, stmt.params, stmt.body, FunctionKind.FUNCTION, false);
+            emit(OpCode.DEFINE_GLOBAL, vm.globalSlot(stmt.name.lexeme));
+        } else {
+            // declare the local first so the function can refer to itself.
+            addLocal(stmt.name.lexeme);
+            function(stmt.name.lexeme, stmt.params, stmt.body, FunctionKind.FUNCTION, false);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfElseStmt(Stmt.IfElse stmt) {
+        List<Integer> endJumps = new ArrayList<>();
+        for (Stmt.If branch : stmt.ifBranches) {
+            compile(branch.condition);
+            int nextJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(branch.body);
+            endJumps.add(emitJump(OpCode.JUMP));
+            patchJump(nextJump);
+            emit(OpCode.POP);
+        }
+
+        if (stmt.elseBranch != null) {
+            compile(stmt.elseBranch);
+        }
+
+        for (int jump : endJumps) {
+            patchJump(jump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        // the parser always wraps if statements in an IfElse, but a bare one compiles like a single branch.
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (isGlobalScope()) {
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+                line = stmt.name.line;
+                emit(OpCode.DEFINE_GLOBAL, vm.globalSlot(stmt.name.lexeme));
+            } else {
+                emit(OpCode.DECLARE_GLOBAL, vm.globalSlot(stmt.name.lexeme));
+            }
+        } else {
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            } else {
+                emit(OpCode.DECLARE_LOCAL);
+            }
+            addLocal(stmt.name.lexeme);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        Loop loop = new Loop(current.loop, chunk().count, current.scopeDepth);
+        current.loop = loop;
+
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loop.start);
+        int end = chunk().count;
+
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        for (int jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+        chunk().addLoop(new Chunk.LoopRange(loop.start, end, chunk().count, current.locals.size()));
+
+        current.loop = loop.enclosing;
+        return null;
+    }
+
+    @Override
+    public Void visitLoopKeywordStmt(Stmt.LoopKeyword stmt) {
+        line = stmt.token.line;
+        Loop loop = current.loop;
+        if (loop == null) {
+            // inside a function declared in a loop body: leave the function and find the loop at runtime.
+            emit(OpCode.INTERRUPT_LOOP, stmt.token.type == TokenType.CONTINUE ? 1 : 0);
+            return null;
+        }
+
+        discardLoopLocals(loop);
+        switch (stmt.token.type) {
+            case BREAK:
+                loop.breakJumps.add(emitJump(OpCode.JUMP));
+                break;
+            case CONTINUE:
+                emitLoop(loop.start);
+                break;
+            default:
+                error(stmt.token, "Unimplemented loop interrupt.");
+        }
+        return null;
+    }
+
+    // ---- expressions ----
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        emitSetVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (expr.operator.type == TokenType.COMMA) {
+            compile(expr.left);
+            emit(OpCode.POP);
+            compile(expr.right);
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS:         emit(OpCode.SUBTRACT); break;
+            case SLASH:         emit(OpCode.DIVIDE); break;
+            case STAR:          emit(OpCode.MULTIPLY); break;
+            case PLUS:          emit(OpCode.ADD); break;
+            case GREATER:       emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS:          emit(OpCode.LESS); break;
+            case LESS_EQUAL:    emit(OpCode.LESS_EQUAL); break;
+            case BANG_EQUAL:    emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL:   emit(OpCode.EQUAL); break;
+            default:
+                error(expr.operator, "Unrecognized binary operator '" + expr.operator.lexeme + "'.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // obj.method(args) looks the method up and calls it without creating a bound method.
+            Expr.Get get = (Expr.Get)expr.callee;
+            compile(get.object);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emit(OpCode.INVOKE, constant(get.name.lexeme));
+            emit(expr.arguments.size());
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super)expr.callee;
+            emitGetVariable("this");
+            compileArguments(expr.arguments);
+            emitGetVariable("super");
+            line = expr.paren.line;
+            emit(OpCode.SUPER_INVOKE, constant(superExpr.method.lexeme));
+            emit(expr.arguments.size());
+        } else {
+            compile(expr.callee);
+            compileArguments(expr.arguments);
+            line = expr.paren.line;
+            emit(OpCode.CALL, expr.arguments.size());
+        }
+        return null;
+    }
+
+    private void compileArguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitFunExpr(Expr.Fun expr) {
+        line = expr.keyword.line;
+        function("anonymous", expr.params, expr.body, FunctionKind.FUNCTION, false);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(OpCode.GET_PROPERTY, constant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emit(OpCode.SET_PROPERTY, constant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        emitGetVariable("this");
+        emitGetVariable("super");
+        line = expr.method.line;
+        emit(OpCode.GET_SUPER, constant(expr.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        emitGetVariable("this");
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value instanceof Boolean) {
+            emit((boolean)expr.value ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emit(OpCode.CONSTANT, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case MINUS: emit(OpCode.NEGATE); break;
+            case BANG:  emit(OpCode.NOT); break;
+            default:
+                error(expr.operator, "Unrecognized unary operator '" + expr.operator.lexeme + "'.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        compile(expr.left);
+        line = expr.leftOperator.line;
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.center);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        emit(OpCode.POP);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        emitGetVariable(expr.name.lexeme);
+        return null;
+    }
+
+    @Override
+    public Void visitIncrementExpr(Expr.Increment expr) {
+        String name = expr.identifier.name.lexeme;
+        line = expr.identifier.name.line;
+        emitGetVariable(name);
+        emit(OpCode.CHECK_INTEGER);
+
+        boolean isPostfix = false;
+        int op = OpCode.ADD;
+        switch (expr.type) {
+            case POST_INCREMENT: isPostfix = true; break;
+            case POST_DECREMENT: isPostfix = true; op = OpCode.SUBTRACT; break;
+            case PRE_INCREMENT:  break;
+            case PRE_DECREMENT:  op = OpCode.SUBTRACT; break;
+        }
+
+        // postfix forms leave the old value under the new one, then drop the new one after storing it.
+        if (isPostfix) emit(OpCode.DUP);
+        emit(OpCode.CONSTANT, constant(1.0));
+        emit(op);
+        emitSetVariable(name);
+        if (isPostfix) emit(OpCode.POP);
+        return null;
+    }
+}
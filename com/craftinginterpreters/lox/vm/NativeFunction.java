@@ -0,0 +1,12 @@
+package com.craftinginterpreters.lox.vm;
+
+/** A function implemented in Java. */
+abstract class NativeFunction {
+    abstract int arity();
+    abstract Object call(Object[] arguments);
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
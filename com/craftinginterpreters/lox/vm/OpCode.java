@@ -0,0 +1,57 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * Instruction set of the bytecode VM.
+ * Every instruction is one int opcode followed by zero or more int operands, noted next to each opcode.
+ */
+final class OpCode {
+    private OpCode() {}
+
+    static final int CONSTANT        = 0;  // constant index
+    static final int NIL             = 1;
+    static final int TRUE            = 2;
+    static final int FALSE           = 3;
+    static final int POP             = 4;
+    static final int DUP             = 5;
+    static final int GET_LOCAL       = 6;  // stack slot
+    static final int SET_LOCAL       = 7;  // stack slot
+    static final int GET_GLOBAL      = 8;  // global slot
+    static final int DEFINE_GLOBAL   = 9;  // global slot
+    static final int DECLARE_GLOBAL  = 10; // global slot
+    static final int SET_GLOBAL      = 11; // global slot
+    static final int GET_UPVALUE     = 12; // upvalue index
+    static final int SET_UPVALUE     = 13; // upvalue index
+    static final int GET_PROPERTY    = 14; // name constant
+    static final int SET_PROPERTY    = 15; // name constant
+    static final int GET_SUPER       = 16; // name constant
+    static final int EQUAL           = 17;
+    static final int NOT_EQUAL       = 18;
+    static final int GREATER         = 19;
+    static final int GREATER_EQUAL   = 20;
+    static final int LESS            = 21;
+    static final int LESS_EQUAL      = 22;
+    static final int ADD             = 23;
+    static final int SUBTRACT        = 24;
+    static final int MULTIPLY        = 25;
+    static final int DIVIDE          = 26;
+    static final int NOT             = 27;
+    static final int NEGATE          = 28;
+    static final int CHECK_INTEGER   = 29;
+    static final int PRINT           = 30;
+    static final int JUMP            = 31; // forward offset
+    static final int JUMP_IF_FALSE   = 32; // forward offset
+    static final int LOOP            = 33; // backward offset
+    static final int CALL            = 34; // argument count
+    static final int INVOKE          = 35; // name constant, argument count
+    static final int SUPER_INVOKE    = 36; // name constant, argument count
+    static final int CLOSURE         = 37; // function constant, then (isLocal, index) per upvalue
+    static final int CLOSE_UPVALUE   = 38;
+    static final int RETURN          = 39;
+    static final int CLASS           = 40; // name constant
+    static final int INHERIT         = 41;
+    static final int METHOD          = 42; // name constant, isStatic
+    static final int ECHO            = 43;
+    static final int ECHO_NIL        = 44;
+    static final int INTERRUPT_LOOP  = 45; // isContinue
+    static final int DECLARE_LOCAL   = 46;
+}
@@ -0,0 +1,20 @@
+package com.craftinginterpreters.lox.vm;
+
+/** A compiled function: its code and the information needed to build closures over it. */
+final class Prototype {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+    boolean isInitializer = false;
+    boolean isGetter = false;
+
+    Prototype(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
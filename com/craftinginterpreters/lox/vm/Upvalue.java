@@ -0,0 +1,19 @@
+package com.craftinginterpreters.lox.vm;
+
+/**
+ * A variable captured by a closure.
+ * While the variable is still on the VM stack the upvalue refers to its slot; once the variable goes out of scope
+ * its value is moved into the upvalue itself.
+ */
+final class Upvalue {
+    /** stack slot of the variable, or -1 once closed. */
+    int slot;
+    Object closed;
+    /** next open upvalue, ordered by descending slot. */
+    Upvalue next;
+
+    Upvalue(int slot, Upvalue next) {
+        this.slot = slot;
+        this.next = next;
+    }
+}
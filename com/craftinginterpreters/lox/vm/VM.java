@@ -0,0 +1,747 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.craftinginterpreters.lox.RuntimeError;
+import com.craftinginterpreters.lox.Stmt;
+import com.craftinginterpreters.lox.Util;
+
+/**
+ * Bytecode virtual machine for Lox.
+ * Compiles a resolved program with Compiler and runs it in a single dispatch loop over an operand stack,
+ * instead of walking the AST.  Globals persist between calls to interpret(), so one VM can back a REPL session.
+ */
+public final class VM {
+    private static final int FRAMES_MAX = 1 << 16;
+
+    /** global slot value for names that have been compiled but never defined. */
+    private static final Object UNDEFINED = new Object();
+    /** value of variables declared without an initializer, global or local. */
+    private static final Object UNINITIALIZED = new Object();
+
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+    private Upvalue openUpvalues = null;
+
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private String[] globalNames = new String[64];
+    private Object[] globals = new Object[64];
+
+    public VM() {
+        defineNative("clock", new NativeFunction() {
+            @Override
+            int arity() {
+                return 0;
+            }
+
+            @Override
+            Object call(Object[] arguments) {
+                return System.currentTimeMillis() / (long)1000.0;
+            }
+        });
+    }
+
+    private void defineNative(String name, NativeFunction function) {
+        globals[globalSlot(name)] = function;
+    }
+
+    /** Returns the slot for the global with the given name, allocating one if this is the first use of the name. */
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+
+        int index = globalSlots.size();
+        if (index == globals.length) {
+            globals = Arrays.copyOf(globals, index * 2);
+            globalNames = Arrays.copyOf(globalNames, index * 2);
+        }
+        globals[index] = UNDEFINED;
+        globalNames[index] = name;
+        globalSlots.put(name, index);
+        return index;
+    }
+
+    /**
+     * Compiles and runs a program.
+     * If echo is true, the value of the final statement is echoed the way the REPL does.
+     * @throws RuntimeError if the program fails at runtime.
+     */
+    public void interpret(List<Stmt> statements, boolean echo) throws RuntimeError {
+        Prototype script = new Compiler(this).compile(statements, echo);
+        if (script == null) return;
+
+        Closure closure = new Closure(script);
+        try {
+            push(closure);
+            call(closure, 0, 0);
+            run(0);
+        } finally {
+            // leave the VM ready for the next REPL line, even after an error.
+            sp = 0;
+            frameCount = 0;
+            openUpvalues = null;
+            Arrays.fill(stack, null);
+        }
+    }
+
+    // ---- stack ----
+
+    private void push(Object value) {
+        if (sp == stack.length) stack = Arrays.copyOf(stack, sp * 2);
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        return stack[--sp];
+    }
+
+    private Object peek(int distance) {
+        return stack[sp - 1 - distance];
+    }
+
+    // ---- the interpreter loop ----
+
+    /**
+     * Runs instructions until the frame count drops back to exitDepth, and returns the last value returned.
+     * Nested runs let instructions such as INVOKE run a getter to completion before carrying on.
+     */
+    private Object run(int exitDepth) throws RuntimeError {
+        CallFrame frame = frames[frameCount - 1];
+        Closure closure = frame.closure;
+        int[] code = closure.function.chunk.code;
+        Object[] constants = closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT:
+                    push(constants[code[ip++]]);
+                    break;
+                case OpCode.NIL:
+                    push(null);
+                    break;
+                case OpCode.TRUE:
+                    push(true);
+                    break;
+                case OpCode.FALSE:
+                    push(false);
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+                case OpCode.DUP:
+                    push(peek(0));
+                    break;
+
+                case OpCode.GET_LOCAL: {
+                    Object value = stack[base + code[ip++]];
+                    if (value == UNINITIALIZED) throw uninitialized(line(frame, ip));
+                    push(value);
+                    break;
+                }
+                case OpCode.DECLARE_LOCAL:
+                    push(UNINITIALIZED);
+                    break;
+                case OpCode.SET_LOCAL:
+                    stack[base + code[ip++]] = peek(0);
+                    break;
+                case OpCode.GET_GLOBAL: {
+                    int slot = code[ip++];
+                    Object value = globals[slot];
+                    if (value == UNDEFINED || value == UNINITIALIZED) {
+                        throw globalError(slot, value, line(frame, ip));
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL:
+                    globals[code[ip++]] = pop();
+                    break;
+                case OpCode.DECLARE_GLOBAL:
+                    globals[code[ip++]] = UNINITIALIZED;
+                    break;
+                case OpCode.SET_GLOBAL: {
+                    int slot = code[ip++];
+                    if (globals[slot] == UNDEFINED) {
+                        throw globalError(slot, UNDEFINED, line(frame, ip));
+                    }
+                    globals[slot] = peek(0);
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    Upvalue upvalue = closure.upvalues[code[ip++]];
+                    Object value = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+                    if (value == UNINITIALIZED) throw uninitialized(line(frame, ip));
+                    push(value);
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    Upvalue upvalue = closure.upvalues[code[ip++]];
+                    if (upvalue.slot >= 0) {
+                        stack[upvalue.slot] = peek(0);
+                    } else {
+                        upvalue.closed = peek(0);
+                    }
+                    break;
+                }
+
+                case OpCode.GET_PROPERTY: {
+                    String name = (String)constants[code[ip++]];
+                    Object receiver = peek(0);
+                    int line = line(frame, ip);
+
+                    // instance methods are called straight off the stack, with the receiver already in slot 0.
+                    if (receiver instanceof VmInstance) {
+                        VmInstance instance = (VmInstance)receiver;
+                        if (!instance.fields.containsKey(name)) {
+                            Closure method = instance.klass.methods.get(name);
+                            if (method != null && method.function.isGetter) {
+                                frame.ip = ip;
+                                call(method, 0, line);
+                                frame = frames[frameCount - 1];
+                                closure = frame.closure;
+                                code = closure.function.chunk.code;
+                                constants = closure.function.chunk.constants;
+                                ip = frame.ip;
+                                base = frame.base;
+                                break;
+                            }
+                        }
+                    }
+
+                    Object value = getProperty(receiver, name, line);
+                    stack[sp - 1] = value;
+                    if (isGetter(value)) {
+                        frame.ip = ip;
+                        callValue(value, 0, line);
+                        frame = frames[frameCount - 1];
+                        closure = frame.closure;
+                        code = closure.function.chunk.code;
+                        constants = closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                    }
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String)constants[code[ip++]];
+                    Object value = pop();
+                    Object receiver = pop();
+                    if (receiver instanceof VmInstance) {
+                        ((VmInstance)receiver).fields.put(name, value);
+                    } else if (receiver instanceof VmClass) {
+                        ((VmClass)receiver).statics.put(name, value);
+                    } else {
+                        throw new RuntimeError(line(frame, ip), "Only instances have fields.");
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String)constants[code[ip++]];
+                    VmClass superclass = (VmClass)pop();
+                    Object receiver = pop();
+                    push(new BoundMethod(receiver, superMethod(superclass, name, line(frame, ip))));
+                    break;
+                }
+
+                case OpCode.EQUAL: {
+                    Object b = pop();
+                    stack[sp - 1] = isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object b = pop();
+                    stack[sp - 1] = !isEqual(stack[sp - 1], b);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    stack[sp - 1] = (double)a > (double)b;
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    stack[sp - 1] = (double)a >= (double)b;
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    stack[sp - 1] = (double)a < (double)b;
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    stack[sp - 1] = (double)a <= (double)b;
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    if (a instanceof Double && b instanceof Double) {
+                        stack[sp - 1] = (double)a + (double)b;
+                    } else if (a instanceof String || b instanceof String) {
+                        // if either operand is a string, cast the other to a string before concatenation.
+                        stack[sp - 1] = Util.stringify(a) + Util.stringify(b);
+                    } else {
+                        throw new RuntimeError(line(frame, ip),
+                            "Operands must be two numbers or one string and one string-castable object.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    stack[sp - 1] = (double)a - (double)b;
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    stack[sp - 1] = (double)a * (double)b;
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object b = pop();
+                    Object a = stack[sp - 1];
+                    checkNumberOperands(a, b, frame, ip);
+                    if ((double)b == 0) {
+                        throw new RuntimeError(line(frame, ip), "Cannot divide by 0.");
+                    }
+                    stack[sp - 1] = (double)a / (double)b;
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE: {
+                    Object value = stack[sp - 1];
+                    checkNumberOperand(value, frame, ip);
+                    stack[sp - 1] = -(double)value;
+                    break;
+                }
+                case OpCode.CHECK_INTEGER: {
+                    Object value = stack[sp - 1];
+                    if (!(value instanceof Double) || !Util.isInteger((double)value)) {
+                        throw new RuntimeError(line(frame, ip), "Cannot apply increment operation to non-integer value.");
+                    }
+                    break;
+                }
+
+                case OpCode.PRINT:
+                    System.out.println(Util.stringify(pop()));
+                    break;
+                case OpCode.ECHO:
+                    System.out.println(Util.ANSI_GREEN + Util.stringify(pop()) + Util.ANSI_RESET);
+                    break;
+                case OpCode.ECHO_NIL:
+                    System.out.println(Util.ANSI_GREY + "nil" + Util.ANSI_RESET);
+                    break;
+
+                case OpCode.JUMP: {
+                    int offset = code[ip++];
+                    ip += offset;
+                    break;
+                }
+                case OpCode.JUMP_IF_FALSE: {
+                    int offset = code[ip++];
+                    if (!isTruthy(peek(0))) ip += offset;
+                    break;
+                }
+                case OpCode.LOOP: {
+                    int offset = code[ip++];
+                    ip -= offset;
+                    break;
+                }
+
+                case OpCode.CALL: {
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    callValue(peek(argCount), argCount, line(frame, ip));
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.INVOKE: {
+                    String name = (String)constants[code[ip++]];
+                    int argCount = code[ip++];
+                    frame.ip = ip;
+                    try {
+                        invoke(name, argCount, line(frame, ip));
+                    } catch (LoopInterrupt interrupt) {
+                        // from a getter that invoke() ran to completion in a nested run().
+                        interruptLoop(interrupt, exitDepth);
+                    }
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.SUPER_INVOKE: {
+                    String name = (String)constants[code[ip++]];
+                    int argCount = code[ip++];
+                    VmClass superclass = (VmClass)pop();
+                    frame.ip = ip;
+                    call(superMethod(superclass, name, line(frame, ip)), argCount, line(frame, ip));
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Prototype function = (Prototype)constants[code[ip++]];
+                    Closure created = new Closure(function);
+                    for (int i = 0; i < created.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++];
+                        created.upvalues[i] = isLocal ? captureUpvalue(base + index) : closure.upvalues[index];
+                    }
+                    push(created);
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = pop();
+                    closeUpvalues(base);
+                    frameCount--;
+                    sp = base;
+                    push(result);
+                    if (frameCount == exitDepth) return result;
+
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.INTERRUPT_LOOP: {
+                    // a break or continue in a function declared in a loop body, for the loop in a caller.
+                    LoopInterrupt interrupt = new LoopInterrupt(code[ip++] == 1, line(frame, ip));
+                    closeUpvalues(base);
+                    frameCount--;
+                    sp = base;
+                    interruptLoop(interrupt, exitDepth);
+
+                    frame = frames[frameCount - 1];
+                    closure = frame.closure;
+                    code = closure.function.chunk.code;
+                    constants = closure.function.chunk.constants;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+
+                case OpCode.CLASS:
+                    push(new VmClass((String)constants[code[ip++]]));
+                    break;
+                case OpCode.INHERIT: {
+                    Object superclass = peek(1);
+                    if (!(superclass instanceof VmClass)) {
+                        throw new RuntimeError(line(frame, ip), "Superclass must be a class.");
+                    }
+                    VmClass subclass = (VmClass)pop();
+                    subclass.methods.putAll(((VmClass)superclass).methods);
+                    subclass.initializer = subclass.methods.get("init");
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String)constants[code[ip++]];
+                    boolean isStatic = code[ip++] == 1;
+                    Closure method = (Closure)pop();
+                    VmClass klass = (VmClass)peek(0);
+                    if (isStatic) {
+                        klass.statics.put(name, method);
+                    } else {
+                        klass.methods.put(name, method);
+                        if (method.function.isInitializer) klass.initializer = method;
+                    }
+                    break;
+                }
+
+                default:
+                    throw new RuntimeError(line(frame, ip), "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    /**
+     * Unwinds calls down to the innermost one made from inside a loop, and points its frame at the loop's exit,
+     * or its start for a continue.  If no call above exitDepth was made from a loop, the interrupt is passed on
+     * to the run() below, and is an error once it reaches the bottom of the stack.
+     */
+    private void interruptLoop(LoopInterrupt interrupt, int exitDepth) throws RuntimeError {
+        while (frameCount > exitDepth) {
+            CallFrame caller = frames[frameCount - 1];
+            Chunk.LoopRange loop = caller.closure.function.chunk.loopAt(caller.ip);
+            if (loop != null) {
+                sp = caller.base + loop.locals;
+                closeUpvalues(sp);
+                caller.ip = interrupt.isContinue ? loop.start : loop.exit;
+                return;
+            }
+
+            closeUpvalues(caller.base);
+            frameCount--;
+            sp = caller.base;
+        }
+
+        if (exitDepth > 0) throw interrupt;
+        throw new RuntimeError(interrupt.line, "Loop interrupt not semantically valid.");
+    }
+
+    /** A break or continue unwinding out of a nested run(), for the run() with the loop's frame to pick up. */
+    private static final class LoopInterrupt extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final boolean isContinue;
+        final int line;
+
+        LoopInterrupt(boolean isContinue, int line) {
+            super(null, null, false, false);
+            this.isContinue = isContinue;
+            this.line = line;
+        }
+    }
+
+    private static int line(CallFrame frame, int ip) {
+        return frame.closure.function.chunk.lines[ip - 1];
+    }
+
+    private static RuntimeError uninitialized(int line) {
+        return new RuntimeError(line, "Illegal variable access before initialization.");
+    }
+
+    private RuntimeError globalError(int slot, Object value, int line) {
+        if (value == UNINITIALIZED) return uninitialized(line);
+        return new RuntimeError(line, "Undefined variable '" + globalNames[slot] + "'.");
+    }
+
+    // ---- calls ----
+
+    private void callValue(Object callee, int argCount, int line) throws RuntimeError {
+        if (callee instanceof Closure) {
+            call((Closure)callee, argCount, line);
+        } else if (callee instanceof BoundMethod) {
+            BoundMethod bound = (BoundMethod)callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount, line);
+        } else if (callee instanceof VmClass) {
+            VmClass klass = (VmClass)callee;
+            stack[sp - argCount - 1] = new VmInstance(klass);
+            if (klass.initializer != null) {
+                call(klass.initializer, argCount, line);
+            } else {
+                checkArity(0, argCount, line);
+            }
+        } else if (callee instanceof NativeFunction) {
+            NativeFunction function = (NativeFunction)callee;
+            checkArity(function.arity(), argCount, line);
+            Object[] arguments = Arrays.copyOfRange(stack, sp - argCount, sp);
+            Object result = function.call(arguments);
+            sp -= argCount + 1;
+            push(result);
+        } else {
+            throw new RuntimeError(line, "Can only call functions and classes.");
+        }
+    }
+
+    private void call(Closure closure, int argCount, int line) throws RuntimeError {
+        checkArity(closure.function.arity, argCount, line);
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError(line, "Stack overflow.");
+        }
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+
+        CallFrame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+    }
+
+    private void checkArity(int arity, int argCount, int line) throws RuntimeError {
+        if (argCount != arity) {
+            throw new RuntimeError(line, "Expected " + arity + " arguments but got " + argCount + ".");
+        }
+    }
+
+    /** Calls the property name on the receiver below the arguments on the stack. */
+    private void invoke(String name, int argCount, int line) throws RuntimeError {
+        Object receiver = peek(argCount);
+        if (receiver instanceof VmInstance) {
+            VmInstance instance = (VmInstance)receiver;
+            Object field = instance.fields.get(name);
+            if (field != null || instance.fields.containsKey(name)) {
+                if (!isGetter(field)) {
+                    stack[sp - argCount - 1] = field;
+                    callValue(field, argCount, line);
+                    return;
+                }
+            } else {
+                Closure method = instance.klass.methods.get(name);
+                if (method == null) {
+                    throw new RuntimeError(line, "Undefined property '" + name + "'.");
+                }
+                if (!method.function.isGetter) {
+                    call(method, argCount, line);
+                    return;
+                }
+            }
+        }
+
+        // general case: look the property up as a get would, running getters, then call the result.
+        Object callee = getProperty(receiver, name, line);
+        if (isGetter(callee)) {
+            callee = callNested(callee, line);
+        }
+        stack[sp - argCount - 1] = callee;
+        callValue(callee, argCount, line);
+    }
+
+    /** Calls a function with no arguments and runs it to completion. */
+    private Object callNested(Object callee, int line) throws RuntimeError {
+        int depth = frameCount;
+        push(callee);
+        callValue(callee, 0, line);
+        if (frameCount > depth) run(depth);
+        return pop();
+    }
+
+    private Closure superMethod(VmClass superclass, String name, int line) throws RuntimeError {
+        Closure method = superclass.methods.get(name);
+        if (method == null) {
+            throw new RuntimeError(line, "Undefined property '" + name + "'.");
+        }
+        return method;
+    }
+
+    // ---- properties ----
+
+    /** Looks up a property without running getters.  Methods come back bound to their receiver. */
+    private Object getProperty(Object receiver, String name, int line) throws RuntimeError {
+        if (receiver instanceof VmInstance) {
+            VmInstance instance = (VmInstance)receiver;
+            Object field = instance.fields.get(name);
+            if (field != null || instance.fields.containsKey(name)) return field;
+
+            Closure method = instance.klass.methods.get(name);
+            if (method == null) {
+                throw new RuntimeError(line, "Undefined property '" + name + "'.");
+            }
+            return new BoundMethod(instance, method);
+        }
+
+        if (receiver instanceof VmClass) {
+            VmClass klass = (VmClass)receiver;
+            if (!klass.statics.containsKey(name)) {
+                throw new RuntimeError(line, "Undefined static member " + name);
+            }
+            Object member = klass.statics.get(name);
+            if (member instanceof Closure) {
+                // bind function to class scope
+                member = new BoundMethod(null, (Closure)member);
+            }
+            return member;
+        }
+
+        throw new RuntimeError(line, "Cannot access member of a non-member-storing entity.");
+    }
+
+    private static boolean isGetter(Object value) {
+        if (value instanceof Closure) return ((Closure)value).function.isGetter;
+        if (value instanceof BoundMethod) return ((BoundMethod)value).method.function.isGetter;
+        return false;
+    }
+
+    // ---- upvalues ----
+
+    private Upvalue captureUpvalue(int slot) {
+        Upvalue previous = null;
+        Upvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        Upvalue created = new Upvalue(slot, upvalue);
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int lastSlot) {
+        while (openUpvalues != null && openUpvalues.slot >= lastSlot) {
+            Upvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.slot];
+            upvalue.slot = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    // ---- value helpers, matching the tree-walking Interpreter ----
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    private static void checkNumberOperand(Object operand, CallFrame frame, int ip) throws RuntimeError {
+        if (operand instanceof Double) return;
+        String text = operand == null ? "nil" : operand.toString();
+        throw new RuntimeError(line(frame, ip), "Operand '" + text + "' must be a number.");
+    }
+
+    private static void checkNumberOperands(Object left, Object right, CallFrame frame, int ip) throws RuntimeError {
+        checkNumberOperand(left, frame, ip);
+        checkNumberOperand(right, frame, ip);
+    }
+}
@@ -0,0 +1,25 @@
+package com.craftinginterpreters.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runtime class value.
+ * Superclass methods are copied down when the class inherits, so method lookup never walks the hierarchy.
+ * Statics are not inherited, matching the tree-walking interpreter.
+ */
+final class VmClass {
+    final String name;
+    final Map<String, Closure> methods = new HashMap<>();
+    final Map<String, Object> statics = new HashMap<>();
+    Closure initializer;
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -12,36 +12,39 @@ public class GenerateAst {
             System.exit(64);
         }
         String outputDir = args[0];
+        // each type is "Name : constructor fields" with an optional trailing ": mutable fields" section.
+        // mutable fields hold data the interpreter attaches to a node after parsing.
+        // a local declaration's slot is where the Resolver placed it; globals have none.
         // define expression AST subclasses.
         defineAst(outputDir, "Expr", Arrays.asList(
-            "Assign     : Token name, Expr value",
-            "Binary     : Expr left, Token operator, Expr right",
-            "Call       : Expr callee, Token paren, List<Expr> arguments",
-            "Fun        : List<Token> params, List<Stmt> body, Token keyword",
-            "Get        : Expr object, Token name",
-            "Set        : Expr object, Token name, Expr value",
-            "Super      : Token keyword, Token method",
-            "This       : Token keyword",
+            "Assign     : Token name, Expr value : Environment.GlobalCell global, VarSlot slot",
+            "Binary     : Expr left, Token operator, Expr right : Specialization specialization = Specialization.UNINITIALIZED",
+            "Call       : Expr callee, Token paren, List<Expr> arguments : Specialization specialization = Specialization.UNINITIALIZED",
+            "Fun        : List<Token> params, List<Stmt> body, Token keyword : FunctionProfile profile = new FunctionProfile(), FrameLayout layout = new FrameLayout(), LazyBody lazyBody",
+            "Get        : Expr object, Token name : PropertyCache cache = new PropertyCache()",
+            "Set        : Expr object, Token name, Expr value : PropertyCache cache = new PropertyCache()",
+            "Super      : Token keyword, Token method : VarSlot slot, VarSlot thisSlot",
+            "This       : Token keyword : VarSlot slot",
             "Grouping   : Expr expression",
             "Literal    : Object value",
-            "Logical    : Expr left, Token operator, Expr right",
-            "Unary      : Token operator, Expr right",
+            "Logical    : Expr left, Token operator, Expr right : Specialization specialization = Specialization.UNINITIALIZED",
+            "Unary      : Token operator, Expr right : Specialization specialization = Specialization.UNINITIALIZED",
             "Ternary    : Expr left, Expr center, Expr right, Token leftOperator, Token rightOperator",
-            "Variable   : Token name",
+            "Variable   : Token name : Environment.GlobalCell global, VarSlot slot",
             "Increment  : Expr.Variable identifier, Token operator, IncrementType type"
         ));
 
         // define statement AST subclasses.
         defineAst(outputDir, "Stmt", Arrays.asList(
-            "Block      : List<Stmt> statements",
-            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+            "Block      : List<Stmt> statements : int environmentSize",
+            "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods : VarSlot slot",
             "Expression : Expr expression",
-            "Function   : Token name, List<Token> params, List<Stmt> body, Boolean isStatic, Boolean isAutoInvoke",
+            "Function   : Token name, List<Token> params, List<Stmt> body, Boolean isStatic, Boolean isAutoInvoke : FunctionProfile profile = new FunctionProfile(), FrameLayout layout = new FrameLayout(), LazyBody lazyBody, VarSlot slot",
             "IfElse     : List<Stmt.If> ifBranches, Stmt elseBranch",
             "If         : Expr condition, Stmt body",
             "Print      : Expr expression",
-            "Return     : Token keyword, Expr value", 
-            "Var        : Token name, Expr initializer",
+            "Return     : Token keyword, Expr value : boolean isTailCall",
+            "Var        : Token name, Expr initializer : VarSlot slot",
             "While      : Expr condition, Stmt body", 
             "LoopKeyword: Token token"
         ));
@@ -64,9 +67,11 @@ public class GenerateAst {
 
         // The AST classes.
         for (String type : types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] parts = type.split(":");
+            String className = parts[0].trim();
+            String fields = parts[1].trim();
+            String mutableFields = parts.length > 2 ? parts[2].trim() : null;
+            defineType(writer, baseName, className, fields, mutableFields);
         }
 
         // The base accept() method.
@@ -86,7 +91,7 @@ public class GenerateAst {
         writer.println("\t}");
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList, String mutableFieldList) {
         writer.println("\tpublic static class " + className + " extends " + baseName + " {");
 
         // Constructor.
@@ -115,6 +120,14 @@ public class GenerateAst {
             writer.println("\t\tpublic final " + field + ";");
         }
 
+        // Mutable fields, filled in after parsing.
+        if (mutableFieldList != null) {
+            writer.println();
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("\t\t" + field + ";");
+            }
+        }
+
         writer.println("\t}");
     }
     